@@ -0,0 +1,23 @@
+package jkumensa.bot.bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the plain jmh main but always measures
+ * throughput together with the allocation rate of the gc profiler. All
+ * usual jmh arguments are accepted, for example a benchmark regex.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .mode(Mode.Throughput)
+            .addProfiler(GCProfiler.class)
+            .build()
+        ).run();
+    }
+}
@@ -0,0 +1,55 @@
+package jkumensa.bot.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import jkumensa.api.Mensa;
+import jkumensa.bot.datahandling.JkuMensaSource;
+import jkumensa.bot.datahandling.MenuIndex;
+import jkumensa.parser.MensaDay;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * Real menus for the benchmarks, parsed from the stored pages of the tests.
+ */
+final class Fixtures {
+    static final String PAGE = "/html/mensa_2017-10-16.html";
+
+    static final String HELP_UPDATE = "{\"update_id\":10000,\"message\":{\"message_id\":1365,"
+        + "\"from\":{\"id\":1111111,\"is_bot\":false,\"first_name\":\"Test\",\"username\":\"test\",\"language_code\":\"de\"},"
+        + "\"chat\":{\"id\":1111111,\"first_name\":\"Test\",\"username\":\"test\",\"type\":\"private\"},"
+        + "\"date\":1508140800,\"text\":\"/help\",\"entities\":[{\"offset\":0,\"length\":5,\"type\":\"bot_command\"}]}}";
+
+    private Fixtures() {
+    }
+
+    static Document document(String page) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream(page)) {
+            return Jsoup.parse(in, "UTF-8", "http://menu.mensen.at/index/index/locid/1");
+        }
+    }
+
+    static MenuIndex index() throws IOException {
+        Map<Mensa, List<? extends MensaDay>> parsed = new JkuMensaSource().parse(document(PAGE));
+        MenuIndex.Builder b = new MenuIndex.Builder();
+        parsed.forEach((mensa, days) -> {
+            if (days != null) {
+                b.put(mensa, days);
+            }
+        });
+        return b.build(LocalDate.MIN);
+    }
+
+    /**
+     * The first day of the page that has menus.
+     */
+    static LocalDate firstDay(MenuIndex index) {
+        return index.getDates().stream()
+            .filter(d -> !index.get(d).isEmpty())
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No menus in " + PAGE));
+    }
+}
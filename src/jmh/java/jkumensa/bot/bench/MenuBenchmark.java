@@ -0,0 +1,64 @@
+package jkumensa.bot.bench;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaApiResult;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.serialization.OrgjsonMensaSerialization;
+import jkumensa.bot.MensaMenuFormatter;
+import jkumensa.bot.datahandling.MenuIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Rendering a menu for the bot and serializing it for the api.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MenuBenchmark {
+    private final MensaMenuFormatter formatter = new MensaMenuFormatter();
+    private final OrgjsonMensaSerialization serialization = new OrgjsonMensaSerialization();
+
+    private LocalDate day;
+    private List<MensaCategory> categories;
+    private MensaApiResult result;
+
+    @Setup
+    public void setup() throws IOException {
+        MenuIndex index = Fixtures.index();
+        day = Fixtures.firstDay(index);
+        categories = new ArrayList<>(index.get(day, Mensa.CLASSIC));
+        result = index.toResult(day);
+    }
+
+    @Benchmark
+    public void getCategory(Blackhole bh) {
+        for (MensaCategory cat : categories) {
+            bh.consume(formatter.getCategory(cat));
+        }
+    }
+
+    @Benchmark
+    public String getMensaTitle() {
+        return formatter.getMensaTitle(Mensa.CLASSIC.name(), day);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return serialization.toJson(result);
+    }
+}
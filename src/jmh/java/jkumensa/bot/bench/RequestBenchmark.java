@@ -0,0 +1,59 @@
+package jkumensa.bot.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import jkumensa.bot.BasicCommands;
+import jkumensa.bot.BreadcrumbNavigator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.telegram.telegrambots.api.methods.send.SendMessage;
+import org.telegram.telegrambots.api.objects.Update;
+
+/**
+ * The steps every incoming telegram request goes through before a menu is
+ * rendered.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Update helpUpdate;
+
+    @Setup
+    public void setup() throws IOException {
+        helpUpdate = mapper.readValue(Fixtures.HELP_UPDATE, Update.class);
+    }
+
+    /**
+     * Like {@code SimpleWebhook.serve} does with every post body.
+     */
+    @Benchmark
+    public Update readUpdate() throws IOException {
+        return mapper.readValue(Fixtures.HELP_UPDATE, Update.class);
+    }
+
+    @Benchmark
+    public String breadcrumbNavigation() {
+        BreadcrumbNavigator bn = BreadcrumbNavigator.fromString("newmensamenu:CLASSIC");
+        return bn.getCurrent() + bn.navigateToParent();
+    }
+
+    /**
+     * The answer of help, which needs only the name of the bot and no bot
+     * instance.
+     */
+    @Benchmark
+    public SendMessage commandDispatch() {
+        return BasicCommands.help(helpUpdate, "jkumensabot");
+    }
+}
@@ -1,17 +1,52 @@
 package jkumensa.bot;
 
 import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaApiResult;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.data.MensaApiResultData;
 import jkumensa.api.serialization.OrgjsonMensaSerialization;
+import jkumensa.bot.datahandling.ConditionalFetcher;
 import jkumensa.bot.datahandling.DataProvider;
+import jkumensa.bot.datahandling.MenuArchive;
+import jkumensa.bot.datahandling.MenuChanges;
+import jkumensa.bot.datahandling.MenuIndex;
+import jkumensa.bot.datahandling.SearchIndex;
+import jkumensa.bot.logging.RecentUpdates;
+import jkumensa.bot.metrics.Metrics;
 import lombok.Value;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 /**
  * Creates a mini http webserver exposing the current mensa data as json.
  */
 public class ApiHttpServer extends NanoHTTPD {
     private final DataProvider dataProvider;
-    private volatile DataHolder data = new DataHolder(null, null);
+    private volatile Payloads payloads;
+    private final ConcurrentHashMap<String, SourcePayload> sourcePayloads = new ConcurrentHashMap<>();
 
     public static void main(String[] args) throws IOException, InterruptedException {
         DataProvider dp = new DataProvider();
@@ -22,56 +57,445 @@ public class ApiHttpServer extends NanoHTTPD {
     public ApiHttpServer(int port, DataProvider dataProvider) {
         super(port);
         this.dataProvider = dataProvider;
-        dataProvider.setOnUpdate(this::update);
+        //the data may already be loaded, so everything counts as added
+        update(MenuChanges.between(MenuIndex.EMPTY, dataProvider.getMenuIndex()));
+        dataProvider.addOnUpdate(this::update);
     }
 
     @Override
     public Response serve(IHTTPSession session) {
+        Response r = route(session);
+        Metrics.HTTP_REQUESTS.labels(routeName(session.getUri()), String.valueOf(r.getStatus().getRequestStatus())).inc();
+        return r;
+    }
+
+    /**
+     * Groups the uri into the known routes so arbitrary paths do not create
+     * new series.
+     */
+    private static String routeName(String uri) {
+        if (uri.equals("/get") || uri.startsWith("/get/")) {
+            return "/get";
+        } else if (uri.startsWith("/source/")) {
+            return "/source";
+        }
+        switch (uri) {
+            case "/":
+            case "/history":
+            case "/search":
+            case "/metrics":
+            case "/debug/recent":
+                return uri;
+            default:
+                return "other";
+        }
+    }
+
+    private Response route(IHTTPSession session) {
         if (session.getUri().equals("/")) {
             return serveHelp(session);
-        } else if (session.getUri().equals("/get")) {
+        } else if (session.getUri().equals("/get") || session.getUri().startsWith("/get/")) {
             return serveData(session);
+        } else if (session.getUri().startsWith("/source/")) {
+            return serveSource(session);
+        } else if (session.getUri().equals("/history")) {
+            return serveHistory(session);
+        } else if (session.getUri().equals("/search")) {
+            return serveSearch(session);
+        } else if (session.getUri().equals("/debug/recent")) {
+            return serveRecent();
+        } else if (session.getUri().equals("/metrics")) {
+            return newFixedLengthResponse(Response.Status.OK, "text/plain; version=0.0.4; charset=utf-8", Metrics.scrape());
         } else {
             return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "404 NOT FOUND");
         }
     }
 
     private Response serveData(IHTTPSession session) {
-        DataHolder data = this.data;
-        if (data == null || data.getJsonCache() == null) {
+        Payloads payloads = this.payloads;
+        DataHolder data = payloads == null ? null : lookup(payloads, session.getUri());
+        if (payloads == null) {
             return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "500 INTERNAL SERVER ERROR");
-        } else if (data.getEtag().equals(session.getHeaders().get("if-none-match"))) {
+        } else if (data == null) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "404 NOT FOUND");
+        } else {
+            //without a date the relevant day is served, which changes with the day
+            boolean followsDay = session.getUri().split("/").length < 4;
+            return respond(session, data, "application/json; charset=utf-8", followsDay);
+        }
+    }
+
+    /**
+     * Serves the last page of a source at /source/{name} to follower
+     * instances, which then do not have to fetch it from the mensa website.
+     */
+    private Response serveSource(IHTTPSession session) {
+        String name = session.getUri().substring("/source/".length()).toLowerCase(Locale.ROOT);
+        ConditionalFetcher.Page page = dataProvider.getPage(name);
+        if (page == null) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "404 NOT FOUND");
+        }
+        SourcePayload payload = sourcePayloads.compute(name, (k, old) -> old != null && old.getPage() == page
+            ? old
+            : new SourcePayload(page, createDataHolder(page.getBody(), old == null ? null : old.getData())));
+        String charset = page.getCharset() == null ? "" : "; charset=" + page.getCharset();
+        return respond(session, payload.getData(), "text/html" + charset, false);
+    }
+
+    /**
+     * @param followsDay whether the response depends on the relevant day
+     */
+    private Response respond(IHTTPSession session, DataHolder data, String mimeType, boolean followsDay) {
+        boolean gzip = acceptsGzip(session.getHeaders().get("accept-encoding"));
+        String etag = gzip ? data.getEtagGzip() : data.getEtag();
+        if (isNotModified(session, etag, data.getLastModified())) {
             Response r = newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, null);
-            //r.setKeepAlive(false);//is overwritten in any case...
-            r.addHeader("Connection", "close");
-            r.addHeader("Access-Control-Allow-Origin", "*");
+            addCacheHeaders(r, etag, data.getLastModified(), followsDay);
             return r;
         } else {
-            Response r = newFixedLengthResponse(Response.Status.OK, "application/json; charset=utf-8", data.getJsonCache());
+            byte[] body = gzip ? data.getBodyGzip() : data.getBody();
+            Response r = newFixedLengthResponse(
+                Response.Status.OK,
+                mimeType,
+                new ByteArrayInputStream(body),
+                body.length
+            );
+            if (gzip) {
+                r.addHeader("Content-Encoding", "gzip");
+            }
+            addCacheHeaders(r, etag, data.getLastModified(), followsDay);
+            return r;
+        }
+    }
+
+    /**
+     * Streams the archived menus of /history?from=&to=&mensa= in chunks
+     * straight from the archive. All parameters are optional.
+     */
+    private Response serveHistory(IHTTPSession session) {
+        MenuArchive archive = dataProvider.getArchive();
+        if (archive == null) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "404 NOT FOUND");
+        }
+
+        LocalDate from;
+        LocalDate to;
+        Mensa mensa;
+        try {
+            from = parameter(session, "from").map(LocalDate::parse).orElse(LocalDate.MIN);
+            to = parameter(session, "to").map(LocalDate::parse).orElse(LocalDate.MAX);
+            mensa = parameter(session, "mensa").map(m -> Mensa.valueOf(m.toUpperCase(Locale.ROOT))).orElse(null);
+        } catch (DateTimeParseException | IllegalArgumentException ex) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "400 BAD REQUEST");
+        }
+        if (from.isAfter(to)) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "400 BAD REQUEST");
+        }
+
+        try {
+            Response r = newChunkedResponse(Response.Status.OK, "application/json; charset=utf-8", archive.stream(from, to, mensa));
             r.addHeader("Access-Control-Allow-Origin", "*");
-            r.addHeader("Etag", data.getEtag());
-            r.addHeader("Connection", "close");
             return r;
+        } catch (IOException ex) {
+            DataProvider.logger.error("Unable to read archive", ex);
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "500 INTERNAL SERVER ERROR");
+        }
+    }
+
+    /**
+     * Answers /search?q= with all meals from today on matching every word.
+     */
+    private Response serveSearch(IHTTPSession session) {
+        Optional<String> query = parameter(session, "q");
+        if (!query.isPresent()) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "400 BAD REQUEST");
+        }
+
+        JSONArray result = new JSONArray();
+        for (SearchIndex.Hit hit : dataProvider.getSearchIndex().search(query.get(), LocalDate.now(MenuIndex.ZONE), 100)) {
+            result.put(new JSONObject()
+                .put("date", hit.getDate().toString())
+                .put("mensa", hit.getMensa().name())
+                .put("category", hit.getCategory())
+                .put("meal", hit.getMeal() == null ? JSONObject.NULL : hit.getMeal()));
+        }
+        Response r = newFixedLengthResponse(Response.Status.OK, "application/json; charset=utf-8", result.toString());
+        r.addHeader("Access-Control-Allow-Origin", "*");
+        return r;
+    }
+
+    /**
+     * Lists the last handled telegram updates, newest first.
+     */
+    private Response serveRecent() {
+        JSONArray result = new JSONArray();
+        for (RecentUpdates.Entry e : RecentUpdates.GLOBAL.get()) {
+            result.put(new JSONObject()
+                .put("time", Instant.ofEpochMilli(e.getTime()).toString())
+                .put("updateId", e.getUpdateId())
+                .put("type", e.getType())
+                .put("name", e.getName())
+                .put("durationMicros", e.getDurationMicros())
+                .put("error", e.getError() == null ? JSONObject.NULL : e.getError()));
         }
+        return newFixedLengthResponse(Response.Status.OK, "application/json; charset=utf-8", result.toString());
+    }
+
+    private static Optional<String> parameter(IHTTPSession session, String name) {
+        List<String> values = session.getParameters().get(name);
+        return values == null || values.isEmpty() || values.get(0).isEmpty()
+            ? Optional.empty()
+            : Optional.of(values.get(0));
+    }
+
+    /**
+     * @param etag of the representation that would be sent
+     */
+    private static boolean isNotModified(IHTTPSession session, String etag, Instant lastModified) {
+        String ifNoneMatch = session.getHeaders().get("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String ifModifiedSince = session.getHeaders().get("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                Instant since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return !lastModified.isAfter(since);
+            } catch (DateTimeParseException ex) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lets clients cache the data until the next update is done since it
+     * cannot change before. While an update is running that is at most the
+     * fetch deadline away, so clients polling then are not stuck with the
+     * old data until the update after. Responses for the relevant day also
+     * expire when the day switches, at the day switch or at midnight.
+     */
+    private void addCacheHeaders(Response r, String etag, Instant lastModified, boolean followsDay) {
+        ZonedDateTime now = ZonedDateTime.now(MenuIndex.ZONE);
+        ZonedDateTime until = dataProvider.getUpdateDoneTime();
+        if (followsDay) {
+            ZonedDateTime dayChange = DataProvider.getNextDayChange(now);
+            until = until.isBefore(dayChange) ? until : dayChange;
+        }
+        long maxAge = Math.max(0, now.until(until, ChronoUnit.SECONDS));
+        ZonedDateTime expires = now.plusSeconds(maxAge).withZoneSameInstant(ZoneOffset.UTC);
+
+        r.addHeader("Vary", "Accept-Encoding");
+        r.addHeader("Access-Control-Allow-Origin", "*");
+        r.addHeader("Etag", etag);
+        r.addHeader("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atZone(ZoneOffset.UTC)));
+        r.addHeader("Cache-Control", "public, max-age=" + maxAge);
+        r.addHeader("Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(expires));
     }
 
-    private void update() {
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The responses are compressed once on update, so NanoHTTPD must not
+     * compress them again.
+     */
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        return false;
+    }
+
+    /**
+     * Finds the payload for /get, /get/{mensa} and /get/{mensa}/{date}.
+     * Without a date the day currently of interest is served. Mensa names are
+     * accepted in any case.
+     */
+    private DataHolder lookup(Payloads payloads, String uri) {
+        String[] parts = uri.split("/");
+        if (parts.length > 4) {
+            return null;
+        }
+
+        LocalDate relevantDay = dataProvider.getRelevantDay();
+        LocalDate date;
+        if (parts.length == 4) {
+            try {
+                date = LocalDate.parse(parts[3]);
+            } catch (DateTimeParseException ex) {
+                return null;
+            }
+        } else {
+            date = relevantDay;
+        }
+
+        DayPayloads day = payloads.getDays().get(date);
+        if (day == null) {
+            if (!date.equals(relevantDay)) {
+                return null;
+            }
+            //the relevant day always exists, even without data
+            day = payloads.getDays().computeIfAbsent(date, d -> createDayPayloads(payloads.getIndex(), d, null, Collections.emptyMap()));
+        }
+
+        if (parts.length == 2) {
+            return day.getAll();
+        }
+        try {
+            return day.getMensen().get(Mensa.valueOf(parts[2].toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Serializes the days and mensen that changed again and keeps the
+     * payloads of all others.
+     */
+    private void update(MenuChanges changes) {
+        MenuIndex index = changes.getCurrent();
+        Payloads old = this.payloads;
+
+        ConcurrentHashMap<LocalDate, DayPayloads> days = new ConcurrentHashMap<>();
+        for (LocalDate date : index.getDates()) {
+            DayPayloads oldDay = old == null ? null : old.getDays().get(date);
+            Map<Mensa, MenuChanges.Change> changed = changes.get(date);
+            if (oldDay != null && changed.isEmpty()) {
+                days.put(date, oldDay);
+            } else {
+                days.put(date, createDayPayloads(index, date, oldDay, changed));
+            }
+        }
+        this.payloads = new Payloads(index, days);
+    }
+
+    /**
+     * Serializes the whole day and every changed mensa of it on its own.
+     */
+    private static DayPayloads createDayPayloads(MenuIndex index, LocalDate date, DayPayloads old, Map<Mensa, MenuChanges.Change> changed) {
+        MensaApiResult result = index.toResult(date);
+        DataHolder all = createDataHolder(result, old == null ? null : old.getAll());
+
+        EnumMap<Mensa, DataHolder> mensen = new EnumMap<>(Mensa.class);
+        for (Map.Entry<Mensa, List<? extends MensaCategory>> e : result.getData().entrySet()) {
+            DataHolder oldMensa = old == null ? null : old.getMensen().get(e.getKey());
+            if (oldMensa != null && !changed.containsKey(e.getKey())) {
+                mensen.put(e.getKey(), oldMensa);
+                continue;
+            }
+            EnumMap<Mensa, List<? extends MensaCategory>> single = new EnumMap<>(Mensa.class);
+            single.put(e.getKey(), e.getValue());
+            mensen.put(e.getKey(), createDataHolder(new MensaApiResultData(result.getDatestamp(), single), oldMensa));
+        }
+        return new DayPayloads(all, mensen);
+    }
+
+    private static DataHolder createDataHolder(MensaApiResult result, DataHolder old) {
         OrgjsonMensaSerialization s = new OrgjsonMensaSerialization();
-        String json = s.toJson(dataProvider.getMensaData());
-        data = new DataHolder(String.valueOf(json.hashCode()), json);
+        String json = s.toJson(result);
+        return createDataHolder(json.getBytes(StandardCharsets.UTF_8), old);
+    }
+
+    private static DataHolder createDataHolder(byte[] raw, DataHolder old) {
+        String etag = etag(raw);
+        Instant lastModified = old != null && etag.equals(old.getEtag())
+            ? old.getLastModified()
+            : Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        return new DataHolder(etag, gzipEtag(etag), lastModified, raw, gzip(raw));
+    }
+
+    /**
+     * Creates a strong etag from the sha-256 digest of the content.
+     */
+    private static String etag(byte[] raw) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(raw);
+            StringBuilder sb = new StringBuilder(digest.length * 2 + 2).append('"');
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * The compressed body is a different representation, so it needs its own
+     * strong etag. Otherwise a cache could answer a client that does not
+     * accept gzip with the compressed body it validated for another one.
+     */
+    private static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gz\"";
+    }
+
+    private static byte[] gzip(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(raw);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
     }
 
     private Response serveHelp(IHTTPSession session) {
         return newFixedLengthResponse(
             Response.Status.OK,
             MIME_HTML,
-            "The data is at <a href=\"get\">/get</a><br/>Etag is supported!"
+            "The data is at <a href=\"get\">/get</a><br/>"
+            + "A single mensa is at /get/{mensa} or /get/{mensa}/{yyyy-mm-dd}<br/>"
+            + "Etag, Last-Modified and gzip are supported!<br/>"
+            + "Archived menus are at /history?from={yyyy-mm-dd}&to={yyyy-mm-dd}&mensa={mensa}<br/>"
+            + "Upcoming meals are found with /search?q={words}<br/>"
+            + "The pages of the sources for follower instances are at /source/{name}<br/>"
+            + "Prometheus metrics are at /metrics, the last handled updates at /debug/recent"
         );
     }
 
+    @Value
+    private static class Payloads {
+        MenuIndex index;
+        ConcurrentHashMap<LocalDate, DayPayloads> days;
+    }
+
+    @Value
+    private static class DayPayloads {
+        DataHolder all;
+        Map<Mensa, DataHolder> mensen;
+    }
+
     @Value
     private static class DataHolder {
         String etag;
-        String jsonCache;
+        String etagGzip;
+        Instant lastModified;
+        byte[] body;
+        byte[] bodyGzip;
+    }
+
+    @Value
+    private static class SourcePayload {
+        ConditionalFetcher.Page page;
+        DataHolder data;
     }
 }
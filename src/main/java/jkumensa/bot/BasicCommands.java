@@ -47,30 +47,64 @@ public class BasicCommands {
         );
 
         map.put(
-            "testcommand",
+            "search",
             (mb, update) -> {
+                String text = update.getMessage().getText();
+                int space = text.indexOf(' ');
+                String query = space == -1 ? "" : text.substring(space + 1).trim();
                 return new SendMessage()
                     .setChatId(update.getMessage().getChatId())
-                    .setText("This works! Bailing out, you are now on your own. Good luck.\n" + update.getMessage().getChatId());
+                    .setText(mb.search(query));
             }
         );
 
         map.put(
-            "help",
+            "testcommand",
             (mb, update) -> {
                 return new SendMessage()
                     .setChatId(update.getMessage().getChatId())
-                    .setText(
-                        "/help \u27a1 This help\n"
-                        + "/mensen \u27a1 Links to menu plans on the official websites\n"
-                        + "/legend \u27a1 Overview over used symbols\n"
-                        + "/allergycodes \u27a1 Print allergy codes\n"
-                        + "/start \u27a1 Initial command, gives menu\n"
-                        + "by @nithanim"
-                    );
+                    .setText("This works! Bailing out, you are now on your own. Good luck.\n" + update.getMessage().getChatId());
+            }
+        );
+
+        map.put(
+            "subscribe",
+            (mb, update) -> {
+                String text = update.getMessage().getText();
+                int space = text.indexOf(' ');
+                Long chatId = update.getMessage().getChatId();
+                try {
+                    return new SendMessage()
+                        .setChatId(chatId)
+                        .setText(mb.subscribe(chatId, space == -1 ? "" : text.substring(space + 1)));
+                } catch (IOException ex) {
+                    logger.error("Unable to store subscription of chat {}", chatId, ex);
+                    return new SendMessage()
+                        .setChatId(chatId)
+                        .setText("Unable to subscribe, please try again later");
+                }
             }
         );
 
+        map.put(
+            "unsubscribe",
+            (mb, update) -> {
+                Long chatId = update.getMessage().getChatId();
+                try {
+                    return new SendMessage()
+                        .setChatId(chatId)
+                        .setText(mb.unsubscribe(chatId));
+                } catch (IOException ex) {
+                    logger.error("Unable to remove subscription of chat {}", chatId, ex);
+                    return new SendMessage()
+                        .setChatId(chatId)
+                        .setText("Unable to unsubscribe, please try again later");
+                }
+            }
+        );
+
+        map.put("help", (mb, update) -> help(update, mb.getBotUsername()));
+
         BiFunction<MensaBot, Update, SendMessage> allergieliste = (mb, update) -> {
             try (InputStream in = BasicCommands.class.getResourceAsStream("/allergycode.ger.txt")) {
                 Scanner s = new Scanner(in, "UTF-8");
@@ -116,4 +150,25 @@ public class BasicCommands {
 
         COMMANDS = map;
     }
+
+    /**
+     * Lists the commands. Only the name of the bot is needed, for the inline
+     * example.
+     */
+    public static SendMessage help(Update update, String botUsername) {
+        return new SendMessage()
+            .setChatId(update.getMessage().getChatId())
+            .setText(
+                "/help \u27a1 This help\n"
+                + "/mensen \u27a1 Links to menu plans on the official websites\n"
+                + "/legend \u27a1 Overview over used symbols\n"
+                + "/allergycodes \u27a1 Print allergy codes\n"
+                + "/search schnitzel \u27a1 When and where a meal is served\n"
+                + "/subscribe classic 11:00 \u27a1 Get the menu every day\n"
+                + "/unsubscribe \u27a1 Stop the daily menu\n"
+                + "@" + botUsername + " classic morgen \u27a1 Post a menu in any chat\n"
+                + "/start \u27a1 Initial command, gives menu\n"
+                + "by @nithanim"
+            );
+    }
 }
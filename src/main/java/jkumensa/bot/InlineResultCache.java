@@ -0,0 +1,149 @@
+package jkumensa.bot;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaApiResult;
+import jkumensa.api.MensaCategory;
+import jkumensa.bot.datahandling.MenuIndex;
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.api.objects.inlinequery.inputmessagecontent.InputTextMessageContent;
+import org.telegram.telegrambots.api.objects.inlinequery.result.InlineQueryResult;
+import org.telegram.telegrambots.api.objects.inlinequery.result.InlineQueryResultArticle;
+
+/**
+ * Holds the answers of inline queries ("@bot classic") for every mensa and
+ * day. The articles are built once per data update, a query only selects
+ * the prepared ones.
+ */
+public class InlineResultCache {
+    private static final Logger logger = LoggerFactory.getLogger(InlineResultCache.class);
+    /**
+     * Maximum number of results telegram accepts in one answer.
+     */
+    public static final int MAX_RESULTS = 50;
+
+    private final MensaMenuFormatter formatter;
+    private final MenuRenderCache renderCache;
+    private volatile Map<LocalDate, Day> days = Collections.emptyMap();
+
+    public InlineResultCache(MensaMenuFormatter formatter, MenuRenderCache renderCache) {
+        this.formatter = formatter;
+        this.renderCache = renderCache;
+    }
+
+    /**
+     * Builds the articles of all days from the given day on.
+     */
+    public void rebuild(MenuIndex index, LocalDate from) {
+        Map<LocalDate, Day> built = new HashMap<>();
+        int count = 0;
+        for (LocalDate date : index.getDates().tailSet(from, true)) {
+            MensaApiResult data = index.toResult(date);
+            Map<Mensa, InlineQueryResult> articles = new EnumMap<>(Mensa.class);
+            List<InlineQueryResult> all = new ArrayList<>();
+            for (Mensa mensa : data.getData().keySet()) {
+                InlineQueryResult article = article(data, mensa, date);
+                articles.put(mensa, article);
+                all.add(article);
+            }
+            built.put(date, new Day(articles, Collections.unmodifiableList(all)));
+            count += all.size();
+        }
+        days = built;
+        logger.debug("Built {} inline results for {} days", count, built.size());
+    }
+
+    private InlineQueryResult article(MensaApiResult data, Mensa mensa, LocalDate date) {
+        MenuRenderCache.RenderedMenu menu = renderCache.get(data, mensa);
+        String text = menu.getBatched().isEmpty() ? menu.getTitle() : menu.getBatched().get(0);
+        if (text.length() > MenuRenderCache.MESSAGE_LIMIT) {
+            text = text.substring(0, MenuRenderCache.MESSAGE_LIMIT);
+        }
+        List<? extends MensaCategory> cats = data.getData().get(mensa);
+        return new InlineQueryResultArticle()
+            .setId(mensa.name() + ":" + date)
+            .setTitle(formatter.getInlineTitle(mensa.toString(), date))
+            .setDescription(cats.stream().map(MensaCategory::getTitle).collect(Collectors.joining(", ")))
+            .setInputMessageContent(new InputTextMessageContent()
+                .setMessageText(text)
+                .setParseMode("Markdown")
+                .disableWebPagePreview()
+            );
+    }
+
+    /**
+     * Selects the articles matching the query. Words of the query are either
+     * a day (heute/today, morgen/tomorrow or yyyy-mm-dd) or the beginning of
+     * a mensa name; an empty query returns all mensen of the relevant day.
+     *
+     * @param today the current date
+     * @param relevantDay the day shown if the query contains none
+     */
+    public List<InlineQueryResult> find(String query, LocalDate today, LocalDate relevantDay) {
+        LocalDate date = relevantDay;
+        List<String> mensaPrefixes = new ArrayList<>();
+        for (String word : query.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            LocalDate parsed = parseDay(word, today);
+            if (parsed != null) {
+                date = parsed;
+            } else {
+                mensaPrefixes.add(word);
+            }
+        }
+
+        Day day = days.get(date);
+        if (day == null) {
+            return Collections.emptyList();
+        } else if (mensaPrefixes.isEmpty()) {
+            return day.getAll().size() > MAX_RESULTS ? day.getAll().subList(0, MAX_RESULTS) : day.getAll();
+        }
+        List<InlineQueryResult> results = new ArrayList<>();
+        for (Map.Entry<Mensa, InlineQueryResult> e : day.getArticles().entrySet()) {
+            String name = e.getKey().name().toLowerCase(Locale.ROOT);
+            if (mensaPrefixes.stream().anyMatch(name::startsWith)) {
+                results.add(e.getValue());
+            }
+        }
+        return results;
+    }
+
+    private static LocalDate parseDay(String word, LocalDate today) {
+        switch (word) {
+            case "heute":
+            case "today":
+                return today;
+            case "morgen":
+            case "tomorrow":
+                return today.plusDays(1);
+            default:
+                if (word.length() != 10 || !Character.isDigit(word.charAt(0))) {
+                    return null;
+                }
+                try {
+                    return LocalDate.parse(word);
+                } catch (DateTimeParseException ex) {
+                    return null;
+                }
+        }
+    }
+
+    @Value
+    private static class Day {
+        Map<Mensa, InlineQueryResult> articles;
+        List<InlineQueryResult> all;
+    }
+}
@@ -1,5 +1,9 @@
 package jkumensa.bot;
 
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.core.joran.spi.JoranException;
+import fi.iki.elonen.NanoHTTPD;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -8,6 +12,9 @@ import java.util.Properties;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicBoolean;
 import jkumensa.bot.datahandling.DataProvider;
+import jkumensa.bot.http.AsyncRunners;
+import jkumensa.bot.http.CountingAsyncRunner;
+import jkumensa.bot.metrics.Metrics;
 import jkumensa.bot.workaround.CombinedBot;
 import jkumensa.bot.workaround.PollRelayBot;
 import jkumensa.bot.workaround.SimpleWebhook;
@@ -26,9 +33,12 @@ public class Main {
     public static void main(String[] args) throws TelegramApiRequestException, IOException {
         Properties p = new Properties();
         p.load(Files.newInputStream(Paths.get("./settings.properties")));
+        configureLogging(p);
 
-        DataProvider dataProvider = new DataProvider();
-        dataProvider.update();
+        DataProvider dataProvider = new DataProvider(p);
+        if (!dataProvider.loadSnapshot()) {
+            dataProvider.update();
+        }
         dataProvider.start();
 
         ApiHttpServer api;
@@ -39,6 +49,7 @@ public class Main {
                 api = null;
             } else {
                 api = new ApiHttpServer(Integer.parseInt(raw), dataProvider);
+                setAsyncRunner(api, p, "ApiHttp");
                 api.start();
             }
         } catch (Exception ex) {
@@ -58,6 +69,14 @@ public class Main {
             logger.info("Starting on port {} with external url {}", port, url);
 
             SimpleWebhook webhook = new SimpleWebhook(port);
+            setAsyncRunner(webhook, p, "WebhookHttp");
+            if (Boolean.parseBoolean(p.getProperty("bot.webhook.async", "false"))) {
+                int workers = Integer.parseInt(p.getProperty("bot.webhook.workers", "4"));
+                int queue = Integer.parseInt(p.getProperty("bot.webhook.queue", "1000"));
+                logger.info("Processing webhook updates asynchronously with {} workers", workers);
+                webhook.setAsyncProcessing(bot::onUpdateReceived, workers, queue);
+                Metrics.gauge("mensabot_webhook_queue_depth", "Updates waiting for a webhook worker", webhook::getQueueDepth);
+            }
             webhook.startServer();
             webhook.registerWebhook(relay);
             relay.setWebhook(url, null);
@@ -100,6 +119,40 @@ public class Main {
         }
     }
 
+    /**
+     * Switches to the asynchronous, rolling and sampled logging of
+     * logback-production.xml if log.mode is production. Otherwise the
+     * logback.xml meant for development stays in place.
+     */
+    private static void configureLogging(Properties p) {
+        if (!"production".equals(p.getProperty("log.mode"))) {
+            return;
+        }
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+        context.putProperty("log.sampleRate", p.getProperty("log.sampleRate", "0.01"));
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        try {
+            configurator.doConfigure(Main.class.getResource("/logback-production.xml"));
+        } catch (JoranException ex) {
+            throw new RuntimeException("Unable to configure logging!", ex);
+        }
+        logger.info("Using production logging, sampling {} of the updates", p.getProperty("log.sampleRate", "0.01"));
+    }
+
+    private static void setAsyncRunner(NanoHTTPD server, Properties p, String name) {
+        CountingAsyncRunner runner = AsyncRunners.fromSettings(p, name);
+        if (runner != null) {
+            logger.info("Using {} for {}", runner.getClass().getSimpleName(), name);
+            server.setAsyncRunner(runner);
+            Metrics.gauge("mensabot_http_connections_active", "Connections currently being handled",
+                runner::getActiveCount, "server", name);
+            Metrics.gauge("mensabot_http_connections_queued", "Accepted connections waiting for a thread",
+                runner::getQueuedCount, "server", name);
+        }
+    }
+
     private static final AtomicBoolean shutdownLock = new AtomicBoolean(false);
 
     private static void waitShutdown(Runnable r) {
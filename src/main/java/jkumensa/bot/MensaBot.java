@@ -2,76 +2,220 @@ package jkumensa.bot;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.util.Arrays;
+import java.time.Duration;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import jkumensa.api.Mensa;
-import jkumensa.api.MensaCategory;
 import jkumensa.bot.datahandling.DataProvider;
+import jkumensa.bot.datahandling.MenuIndex;
+import jkumensa.bot.datahandling.SearchIndex;
+import jkumensa.bot.logging.RecentUpdates;
+import jkumensa.bot.logging.UpdateSamplingFilter;
+import jkumensa.bot.metrics.Metrics;
+import jkumensa.bot.outbound.OutboundDispatcher;
+import jkumensa.bot.subscription.Broadcaster;
+import jkumensa.bot.subscription.SubscriptionStore;
 import jkumensa.bot.workaround.CombinedBot;
 import lombok.SneakyThrows;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.telegram.telegrambots.api.methods.AnswerInlineQuery;
 import org.telegram.telegrambots.api.methods.BotApiMethod;
 import org.telegram.telegrambots.api.methods.send.SendMessage;
 import org.telegram.telegrambots.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.api.objects.CallbackQuery;
 import org.telegram.telegrambots.api.objects.Update;
+import org.telegram.telegrambots.api.objects.inlinequery.InlineQuery;
+import org.telegram.telegrambots.api.objects.inlinequery.result.InlineQueryResult;
 import org.telegram.telegrambots.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.bots.DefaultAbsSender;
-import org.telegram.telegrambots.exceptions.TelegramApiException;
 
 public class MensaBot implements CombinedBot {
     private static final Logger logger = LoggerFactory.getLogger(MensaBot.class);
+    private static final DateTimeFormatter SUBSCRIPTION_TIME = DateTimeFormatter.ofPattern("H:mm");
+    private static final LocalTime DEFAULT_SUBSCRIPTION_TIME = LocalTime.of(11, 0);
 
     private final InlineKeyboardMarkup inlineKeyboardMensaSelection;
     private final DataProvider dataProvider;
 
     private final String botToken;
     private final String botUsername;
-    private DefaultAbsSender botInterface;
+    private final OutboundDispatcher outbound;
     private final String botUrl;
+    private final boolean batchMessages;
 
     private final MensaMenuFormatter mensaMenuFormatter = new MensaMenuFormatter();
+    private final MenuRenderCache menuRenderCache = new MenuRenderCache(mensaMenuFormatter);
+    private final InlineResultCache inlineResultCache = new InlineResultCache(mensaMenuFormatter, menuRenderCache);
+    private final SubscriptionStore subscriptions;
+    private final Broadcaster broadcaster;
+    private final UpdateDeduplicator deduplicator;
 
     public MensaBot(Properties p, DataProvider dataProvider) throws IOException {
         botToken = p.getProperty("bot.token");
         botUsername = p.getProperty("bot.username");
         botUrl = p.getProperty("bot.url");
+        batchMessages = Boolean.parseBoolean(p.getProperty("bot.batchMessages", "false"));
+        outbound = new OutboundDispatcher(p);
+        deduplicator = new UpdateDeduplicator(
+            Integer.parseInt(p.getProperty("bot.dedup.updates", "4096")),
+            Integer.parseInt(p.getProperty("bot.dedup.callbacks", "1024")),
+            Long.parseLong(p.getProperty("bot.dedup.callbackSeconds", "5"))
+        );
 
         this.dataProvider = dataProvider;
-        inlineKeyboardMensaSelection = new InlineKeyboardMarkup()
-            .setKeyboard(
-                Arrays.asList(
-                    Arrays.asList(
-                        new InlineKeyboardButton("CLASSIC").setCallbackData("newmensamenu:CLASSIC"),
-                        new InlineKeyboardButton("CHOICE").setCallbackData("newmensamenu:CHOICE")
-                    ),
-                    Arrays.asList(
-                        new InlineKeyboardButton("KHG").setCallbackData("newmensamenu:KHG")
-                    //new InlineKeyboardButton("RAAB").setCallbackData("newmensamenu:RAAB")
-                    )
-                )
-            );
+        menuRenderCache.rebuild(dataProvider.getMensaData());
+        inlineResultCache.rebuild(dataProvider.getMenuIndex(), LocalDate.now(MenuIndex.ZONE));
+        dataProvider.addOnUpdate(changes -> {
+            menuRenderCache.update(changes, dataProvider.getMensaData());
+            //after the render cache so the articles use the new generation
+            inlineResultCache.rebuild(changes.getCurrent(), LocalDate.now(MenuIndex.ZONE));
+        });
+        inlineKeyboardMensaSelection = createMensaSelection(dataProvider.getMensas());
+
+        String subscriptionFile = p.getProperty("bot.subscriptions", "subscriptions.dat");
+        if (subscriptionFile.isEmpty()) {
+            subscriptions = null;
+            broadcaster = null;
+        } else {
+            subscriptions = new SubscriptionStore(Paths.get(subscriptionFile));
+            int window = Integer.parseInt(p.getProperty("bot.broadcast.window", "100"));
+            broadcaster = new Broadcaster(subscriptions, this::getMenuMessages, m -> send(m), window);
+            dataProvider.addOnUpdate(broadcaster::notifyChanges);
+        }
+    }
+
+    /**
+     * Creates the keyboard offering all mensen of the registered sources,
+     * two per row.
+     */
+    private static InlineKeyboardMarkup createMensaSelection(List<Mensa> mensas) {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+        for (int i = 0; i < mensas.size(); i += 2) {
+            rows.add(mensas.subList(i, Math.min(i + 2, mensas.size())).stream()
+                .map(m -> new InlineKeyboardButton(m.name()).setCallbackData("newmensamenu:" + m.name()))
+                .collect(Collectors.toList()));
+        }
+        return new InlineKeyboardMarkup().setKeyboard(rows);
     }
 
     @Override
-    @SneakyThrows
     public void onUpdateReceived(Update update) {
-        execute(onWebhookUpdateReceived(update));
+        BotApiMethod method = onWebhookUpdateReceived(update);
+        if (method != null) {
+            send(method);
+        }
     }
 
     @Override
-    @SneakyThrows
     public BotApiMethod onWebhookUpdateReceived(Update update) {
+        String duplicate = duplicateOf(update);
+        if (duplicate != null) {
+            Metrics.DUPLICATE_UPDATES.labels(duplicate).inc();
+            logger.info("Dropping {} duplicate of update {}", duplicate, update.getUpdateId());
+            return null;
+        }
+
+        long start = System.nanoTime();
+        String[] kind = classify(update);
+        Metrics.UPDATES.labels(kind[0], kind[1]).inc();
+        MDC.put(UpdateSamplingFilter.MDC_KEY, String.valueOf(update.getUpdateId()));
+        String error = null;
+        try {
+            return handleUpdate(update);
+        } catch (Throwable ex) {
+            error = ex.getClass().getSimpleName();
+            //let it be handled again if telegram delivers it again or the button is pressed again
+            deduplicator.forgetUpdate(update.getUpdateId());
+            if (update.hasCallbackQuery()) {
+                CallbackQuery q = update.getCallbackQuery();
+                deduplicator.forgetCallback(callbackMessage(q), q.getData());
+            }
+            throw ex;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            Metrics.UPDATE_DURATION.observeNanos(nanos);
+            RecentUpdates.GLOBAL.record(new RecentUpdates.Entry(
+                System.currentTimeMillis(), update.getUpdateId(), kind[0], kind[1], nanos / 1000, error
+            ));
+            MDC.remove(UpdateSamplingFilter.MDC_KEY);
+        }
+    }
+
+    /**
+     * Checks whether the update was already handled, either with the same
+     * update id or as the same callback on the same message a moment ago.
+     *
+     * @return the kind of duplicate or null if it is new
+     */
+    private String duplicateOf(Update update) {
+        if (!deduplicator.firstUpdate(update.getUpdateId())) {
+            return "update";
+        }
+        if (update.hasCallbackQuery()) {
+            CallbackQuery q = update.getCallbackQuery();
+            if (!deduplicator.firstCallback(callbackMessage(q), q.getData())) {
+                return "callback";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Identifies the message the button of the callback belongs to.
+     */
+    private static String callbackMessage(CallbackQuery q) {
+        return q.getInlineMessageId() != null
+            ? "inline:" + q.getInlineMessageId()
+            : q.getMessage().getChatId() + ":" + q.getMessage().getMessageId();
+    }
+
+    /**
+     * Returns the type of the update and, for commands and callbacks, its
+     * name. Unknown names are grouped together to bound the number of
+     * metric series.
+     */
+    private static String[] classify(Update update) {
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            String text = update.getMessage().getText();
+            if (text.startsWith("/")) {
+                int end = text.indexOf(' ');
+                String command = text.substring(1, end == -1 ? text.length() : end).toLowerCase();
+                return new String[]{"command", BasicCommands.COMMANDS.containsKey(command) ? command : "unknown"};
+            } else {
+                return new String[]{"message", ""};
+            }
+        } else if (update.hasCallbackQuery()) {
+            String data = String.valueOf(update.getCallbackQuery().getData());
+            String name = data.startsWith("newmensamenu") ? "newmensamenu" : data.startsWith("mensamenu") ? "mensamenu" : "unknown";
+            return new String[]{"callback", name};
+        } else if (update.hasInlineQuery()) {
+            return new String[]{"inline", ""};
+        } else {
+            return new String[]{"other", ""};
+        }
+    }
+
+    @SneakyThrows
+    private BotApiMethod handleUpdate(Update update) {
         logger.debug("Processing request with id {}", update.getUpdateId());
 
         if (update.hasMessage() && update.getMessage().hasText()) {
             return handleBasicMessage(update);
+        } else if (update.hasInlineQuery()) {
+            return answerInlineQuery(update.getInlineQuery());
         } else if (update.hasCallbackQuery()) {
             CallbackQuery q = update.getCallbackQuery();
 
@@ -124,7 +268,6 @@ public class MensaBot implements CombinedBot {
         }
     }
 
-    @SneakyThrows
     EditMessageText generateMensaMenu(String query, Long chatId) {
         BreadcrumbNavigator bn = BreadcrumbNavigator.fromString(query);
         EditMessageText m = new EditMessageText();
@@ -147,7 +290,7 @@ public class MensaBot implements CombinedBot {
                     .setText(mensaMenuFormatter.getInternalError(this));
 
                 EditMessageText e = generateMensaMenu(bn.navigateToParent(), chatId);
-                execute(new SendMessage()
+                send(new SendMessage()
                     .setChatId(chatId)
                     .setText(e.getText())
                     .setReplyMarkup(e.getReplyMarkup())
@@ -158,56 +301,63 @@ public class MensaBot implements CombinedBot {
                 return m;
             }
 
-            Map<Mensa, List<? extends MensaCategory>> data = dataProvider.getMensaData().getData();
-            List<? extends MensaCategory> cats = data.get(mensa);
-            if (cats == null) {
+            MenuRenderCache.RenderedMenu menu = menuRenderCache.get(dataProvider.getMensaData(), mensa);
+            if (menu == null) {
                 logger.info("Served: No data available", query);
 
                 m.setChatId(chatId)
                     .setParseMode("Markdown")
                     .setText(mensaMenuFormatter.getSplitter());
 
-                execute(new SendMessage().setChatId(chatId)
+                send(new SendMessage().setChatId(chatId)
                     .setParseMode("Markdown")
                     .disableWebPagePreview()
                     .setText(mensaMenuFormatter.getUnavalilableText(this)));
 
                 EditMessageText e = generateMensaMenu(bn.navigateToParent(), chatId);
-                execute(new SendMessage()
+                send(new SendMessage()
                     .setChatId(chatId)
                     .setText(e.getText())
                     .setReplyMarkup(e.getReplyMarkup())
                 );
                 return m;
             } else {
-                logger.info("Served: {}", query);
                 //edit old selection to title
                 //(might be problematic to edit (very) old messages though)
                 m.setChatId(chatId)
                     .setParseMode("Markdown")
                     .setText(mensaMenuFormatter.getSplitter());
 
-                execute(new SendMessage()
-                    .setChatId(chatId)
-                    .setParseMode("Markdown")
-                    .setText(mensaMenuFormatter.getMensaTitle(
-                        mensa.toString(),
-                        Instant.ofEpochSecond(dataProvider.getMensaData().getDatestamp()).atZone(ZoneId.of("Europe/Vienna")).toLocalDate())
-                    )
-                );
-
-                for (MensaCategory cat : cats) {
-                    String txt = mensaMenuFormatter.getCategory(cat);
-                    execute(new SendMessage()
+                if (batchMessages) {
+                    logger.info("Served: {} in {} messages, saved {} calls",
+                        query, menu.getBatched().size(), menu.getUnbatchedSize() - menu.getBatched().size());
+                    for (String txt : menu.getBatched()) {
+                        send(new SendMessage()
+                            .setChatId(chatId)
+                            .setParseMode("Markdown")
+                            .setText(txt)
+                        );
+                    }
+                } else {
+                    logger.info("Served: {}", query);
+                    send(new SendMessage()
                         .setChatId(chatId)
                         .setParseMode("Markdown")
-                        .setText(txt)
+                        .setText(menu.getTitle())
                     );
+
+                    for (String txt : menu.getCategories()) {
+                        send(new SendMessage()
+                            .setChatId(chatId)
+                            .setParseMode("Markdown")
+                            .setText(txt)
+                        );
+                    }
                 }
 
                 //Send new selection below
                 EditMessageText e = generateMensaMenu(bn.navigateToParent(), chatId);
-                execute(new SendMessage()
+                send(new SendMessage()
                     .setChatId(chatId)
                     .setText(e.getText())
                     .setReplyMarkup(e.getReplyMarkup())
@@ -217,8 +367,95 @@ public class MensaBot implements CombinedBot {
         return m;
     }
 
-    public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) throws TelegramApiException {
-        return botInterface.execute(method);
+    /**
+     * Answers an inline query from the prepared results. Telegram may cache
+     * the answer until the data can change next, which is the next update, the
+     * switch to the next relevant day or midnight when today and tomorrow
+     * change their meaning.
+     */
+    private AnswerInlineQuery answerInlineQuery(InlineQuery q) {
+        ZonedDateTime now = ZonedDateTime.now(MenuIndex.ZONE);
+        List<InlineQueryResult> results = inlineResultCache.find(q.getQuery(), now.toLocalDate(), dataProvider.getRelevantDay());
+        logger.info("Served: inline \"{}\" with {} results", q.getQuery(), results.size());
+
+        ZonedDateTime dayChange = DataProvider.getNextDayChange(now);
+        ZonedDateTime nextUpdate = dataProvider.getNextUpdateTime();
+        ZonedDateTime until = nextUpdate.isBefore(dayChange) ? nextUpdate : dayChange;
+        long cacheTime = Math.max(0, Duration.between(now, until).getSeconds());
+
+        return new AnswerInlineQuery()
+            .setInlineQueryId(q.getId())
+            .setResults(results)
+            .setCacheTime((int) Math.min(cacheTime, Integer.MAX_VALUE))
+            .setPersonal(false);
+    }
+
+    /**
+     * Returns the pre-rendered messages of the menu or null if the mensa
+     * serves nothing that day.
+     */
+    private List<String> getMenuMessages(Mensa mensa, LocalDate day) {
+        MenuRenderCache.RenderedMenu menu = menuRenderCache.get(dataProvider.getMensaData(day), mensa);
+        return menu == null ? null : menu.getBatched();
+    }
+
+    /**
+     * Subscribes the chat to the daily menu of a mensa, replacing an earlier
+     * subscription of the chat.
+     *
+     * @param args the mensa and optionally the time, like "classic 11:30"
+     */
+    String subscribe(long chatId, String args) throws IOException {
+        if (subscriptions == null) {
+            return "Subscriptions are not available";
+        }
+        String[] words = args.trim().split("\\s+");
+        if (words[0].isEmpty() || words.length > 2) {
+            return "Usage: /subscribe classic 11:00";
+        }
+        Mensa mensa;
+        try {
+            mensa = Mensa.valueOf(words[0].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            return "Unknown mensa, use one of " + dataProvider.getMensas();
+        }
+        LocalTime time;
+        try {
+            time = words.length == 2 ? LocalTime.parse(words[1], SUBSCRIPTION_TIME) : DEFAULT_SUBSCRIPTION_TIME;
+        } catch (DateTimeParseException ex) {
+            return "Unknown time, use for example 11:00";
+        }
+
+        //subscribing after the time starts with the menu of tomorrow
+        ZonedDateTime now = ZonedDateTime.now(MenuIndex.ZONE);
+        LocalDate lastSent = time.isAfter(now.toLocalTime()) ? now.toLocalDate().minusDays(1) : now.toLocalDate();
+        subscriptions.put(new SubscriptionStore.Subscription(chatId, mensa, time, lastSent.toEpochDay()));
+        logger.info("Chat {} subscribed to {} at {}", chatId, mensa, time);
+        return "You get the menu of " + mensa + " every day at " + SUBSCRIPTION_TIME.format(time) + ", /unsubscribe to stop";
+    }
+
+    String unsubscribe(long chatId) throws IOException {
+        if (subscriptions != null && subscriptions.remove(chatId)) {
+            logger.info("Chat {} unsubscribed", chatId);
+            return "You no longer get the daily menu";
+        } else {
+            return "You are not subscribed";
+        }
+    }
+
+    /**
+     * Answers a search for meals from today on.
+     */
+    String search(String query) {
+        List<SearchIndex.Hit> hits = dataProvider.getSearchIndex().search(query, LocalDate.now(MenuIndex.ZONE), 20);
+        return mensaMenuFormatter.getSearchResult(query, hits);
+    }
+
+    /**
+     * Queues the call for sending to telegram without waiting for it.
+     */
+    public <T extends Serializable, Method extends BotApiMethod<T>> CompletableFuture<T> send(Method method) {
+        return outbound.send(method);
     }
 
     @Override
@@ -233,7 +470,10 @@ public class MensaBot implements CombinedBot {
 
     @Override
     public void setBotInterface(DefaultAbsSender das) {
-        this.botInterface = das;
+        outbound.start(das);
+        if (broadcaster != null) {
+            broadcaster.start();
+        }
     }
 
     @Override
@@ -244,6 +484,10 @@ public class MensaBot implements CombinedBot {
     @Override
     public void stop() {
         dataProvider.stop();
+        if (broadcaster != null) {
+            broadcaster.stop();
+        }
+        outbound.stop();
     }
 
     public String getMensaLinks() {
@@ -2,12 +2,14 @@ package jkumensa.bot;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import jkumensa.api.MensaCategory;
 import jkumensa.api.MensaFoodCharacteristic;
 import jkumensa.api.MensaMeal;
 import jkumensa.api.Priced;
+import jkumensa.bot.datahandling.SearchIndex;
 
 public class MensaMenuFormatter {
     private static final DateTimeFormatter printFormat = DateTimeFormatter.ofPattern("EE dd.MM.yyyy", Locale.GERMAN);
@@ -34,6 +36,28 @@ public class MensaMenuFormatter {
         return "```" + "\n##### " + title + " #####\n" + printFormat.format(date) + "```";
     }
 
+    public String getInlineTitle(String title, LocalDate date) {
+        return title + " \u2013 " + printFormat.format(date);
+    }
+
+    public String getSearchResult(String query, List<SearchIndex.Hit> hits) {
+        if (query.isEmpty()) {
+            return "Usage: /search schnitzel";
+        } else if (hits.isEmpty()) {
+            return "Nothing found for \"" + query + "\"";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (SearchIndex.Hit hit : hits) {
+            sb.append(printFormat.format(hit.getDate())).append(' ').append(hit.getMensa()).append(": ");
+            sb.append(hit.getCategory());
+            if (hit.getMeal() != null) {
+                sb.append(" \u27a1 ").append(hit.getMeal());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
     public String getCategory(MensaCategory cat) {
         StringBuilder sb = new StringBuilder();
 
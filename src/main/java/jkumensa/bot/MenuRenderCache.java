@@ -0,0 +1,160 @@
+package jkumensa.bot;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaApiResult;
+import jkumensa.api.MensaCategory;
+import jkumensa.bot.datahandling.MenuChanges;
+import jkumensa.bot.datahandling.MenuIndex;
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the already formatted menu texts so that a request only has to look
+ * up the finished strings. Every data update starts a new generation which is
+ * pre-rendered right away; the old generation is simply dropped.
+ */
+public class MenuRenderCache {
+    private static final Logger logger = LoggerFactory.getLogger(MenuRenderCache.class);
+    /**
+     * Maximum length of a single telegram text message.
+     */
+    public static final int MESSAGE_LIMIT = 4096;
+
+    private final MensaMenuFormatter formatter;
+    private volatile Generation generation = new Generation(0);
+
+    public MenuRenderCache(MensaMenuFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    /**
+     * Drops all rendered menus and renders every mensa of the given data.
+     */
+    public void rebuild(MensaApiResult data) {
+        Generation g = new Generation(generation.getVersion() + 1);
+        if (data != null) {
+            for (Mensa mensa : data.getData().keySet()) {
+                g.getMenus().put(new Key(mensa, data.getDatestamp()), render(data, mensa));
+            }
+        }
+        generation = g;
+        logger.debug("Rendered {} menus for cache generation {}", g.getMenus().size(), g.getVersion());
+    }
+
+    /**
+     * Starts a new generation that keeps the rendered menus which did not
+     * change and renders every mensa of the given data.
+     */
+    public void update(MenuChanges changes, MensaApiResult data) {
+        Generation old = generation;
+        Generation g = new Generation(old.getVersion() + 1);
+        int kept = 0;
+        for (Map.Entry<Key, RenderedMenu> e : old.getMenus().entrySet()) {
+            Key k = e.getKey();
+            if (!changes.isChanged(Instant.ofEpochSecond(k.getDatestamp()).atZone(MenuIndex.ZONE).toLocalDate(), k.getMensa())) {
+                g.getMenus().put(k, e.getValue());
+                kept++;
+            }
+        }
+        if (data != null) {
+            for (Mensa mensa : data.getData().keySet()) {
+                g.getMenus().computeIfAbsent(new Key(mensa, data.getDatestamp()), k -> render(data, mensa));
+            }
+        }
+        generation = g;
+        logger.debug("Kept {} of {} menus for cache generation {}", kept, g.getMenus().size(), g.getVersion());
+    }
+
+    /**
+     * Returns the rendered menu of the mensa or null if there is no data for
+     * it. Menus missing in the current generation are rendered once and kept.
+     */
+    public RenderedMenu get(MensaApiResult data, Mensa mensa) {
+        if (data == null || data.getData().get(mensa) == null) {
+            return null;
+        }
+        Generation g = generation;
+        return g.getMenus().computeIfAbsent(new Key(mensa, data.getDatestamp()), k -> render(data, mensa));
+    }
+
+    private RenderedMenu render(MensaApiResult data, Mensa mensa) {
+        String title = formatter.getMensaTitle(
+            mensa.toString(),
+            Instant.ofEpochSecond(data.getDatestamp()).atZone(MenuIndex.ZONE).toLocalDate()
+        );
+
+        List<? extends MensaCategory> cats = data.getData().get(mensa);
+        List<String> categories = new ArrayList<>(cats.size());
+        for (MensaCategory cat : cats) {
+            categories.add(formatter.getCategory(cat));
+        }
+        List<String> all = new ArrayList<>(categories.size() + 1);
+        all.add(title);
+        all.addAll(categories);
+        return new RenderedMenu(
+            title,
+            Collections.unmodifiableList(categories),
+            Collections.unmodifiableList(pack(all, MESSAGE_LIMIT))
+        );
+    }
+
+    /**
+     * Joins the parts into as few messages as possible without exceeding the
+     * limit. Parts are never split, so a part that is too long on its own
+     * stays a single message.
+     */
+    static List<String> pack(List<String> parts, int limit) {
+        List<String> messages = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            if (sb.length() > 0 && sb.length() + 1 + part.length() > limit) {
+                messages.add(sb.toString());
+                sb.setLength(0);
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(part);
+        }
+        if (sb.length() > 0) {
+            messages.add(sb.toString());
+        }
+        return messages;
+    }
+
+    @Value
+    private static class Generation {
+        long version;
+        Map<Key, RenderedMenu> menus = new ConcurrentHashMap<>();
+    }
+
+    @Value
+    private static class Key {
+        Mensa mensa;
+        long datestamp;
+    }
+
+    @Value
+    public static class RenderedMenu {
+        String title;
+        List<String> categories;
+        /**
+         * Title and categories packed into as few messages as possible.
+         */
+        List<String> batched;
+
+        /**
+         * Number of messages needed when every part is sent on its own.
+         */
+        public int getUnbatchedSize() {
+            return categories.size() + 1;
+        }
+    }
+}
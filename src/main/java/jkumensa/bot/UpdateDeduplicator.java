@@ -0,0 +1,126 @@
+package jkumensa.bot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Recognizes updates that telegram delivers again, for example because the
+ * webhook answered too slowly or the poll session was restarted, and
+ * callbacks that repeat within a few seconds, like a double tap.
+ * <p>
+ * Both are fixed size tables that are only updated by compare and set, so
+ * checking takes no lock. The updates take 8 bytes per slot, the callbacks a
+ * reference per slot and the callbacks currently remembered. Older entries
+ * are overwritten, so only the most recent updates and callbacks are
+ * remembered.
+ */
+public class UpdateDeduplicator {
+    /**
+     * Update id + 1 at slot id % length, 0 if empty. Update ids are
+     * sequential, so the table holds the last updateSlots ids. Telegram
+     * starts again at a random id after a week without updates, so lower ids
+     * are not older ones and simply take over their slot.
+     */
+    private final AtomicLongArray updates;
+    /**
+     * The last callback at slot hash % length. It is compared by its full
+     * key, so different messages never count as the same one.
+     */
+    private final AtomicReferenceArray<Callback> callbacks;
+    private final long callbackSeconds;
+    private final LongSupplier clock;
+
+    public UpdateDeduplicator(int updateSlots, int callbackSlots, long callbackSeconds) {
+        this(updateSlots, callbackSlots, callbackSeconds, () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @param clock the current time in seconds
+     */
+    UpdateDeduplicator(int updateSlots, int callbackSlots, long callbackSeconds, LongSupplier clock) {
+        this.updates = new AtomicLongArray(updateSlots);
+        this.callbacks = new AtomicReferenceArray<>(callbackSlots);
+        this.callbackSeconds = callbackSeconds;
+        this.clock = clock;
+    }
+
+    /**
+     * Marks the update as seen.
+     *
+     * @return false if it is one of the last seen updates
+     */
+    public boolean firstUpdate(int updateId) {
+        long value = updateId + 1L;
+        int slot = (int) Math.floorMod(updateId, (long) updates.length());
+        while (true) {
+            long current = updates.get(slot);
+            if (current == value) {
+                return false;
+            }
+            if (updates.compareAndSet(slot, current, value)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Forgets a seen update, so that it is handled again when telegram
+     * delivers it again after it failed.
+     */
+    public void forgetUpdate(int updateId) {
+        updates.compareAndSet((int) Math.floorMod(updateId, (long) updates.length()), updateId + 1L, 0);
+    }
+
+    /**
+     * Marks the callback data pressed on the message as seen.
+     *
+     * @param message identifies the message, for example by its chat and
+     * message id or its inline message id
+     * @return false if the same callback was seen within the last seconds
+     */
+    public boolean firstCallback(String message, String data) {
+        Callback seen = new Callback(message + '\n' + data, clock.getAsLong());
+        int slot = slot(seen.key);
+        while (true) {
+            Callback current = callbacks.get(slot);
+            if (current != null && current.key.equals(seen.key) && seen.time - current.time < callbackSeconds) {
+                return false;
+            }
+            if (callbacks.compareAndSet(slot, current, seen)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Forgets a seen callback, so that it is handled again when it is
+     * pressed again after it failed.
+     */
+    public void forgetCallback(String message, String data) {
+        String key = message + '\n' + data;
+        int slot = slot(key);
+        Callback current = callbacks.get(slot);
+        if (current != null && current.key.equals(key)) {
+            callbacks.compareAndSet(slot, current, null);
+        }
+    }
+
+    private int slot(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), callbacks.length());
+    }
+
+    private static class Callback {
+        private final String key;
+        /**
+         * In seconds.
+         */
+        private final long time;
+
+        Callback(String key, long time) {
+            this.key = key;
+            this.time = time;
+        }
+    }
+}
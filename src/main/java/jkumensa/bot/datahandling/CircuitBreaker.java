@@ -0,0 +1,69 @@
+package jkumensa.bot.datahandling;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a source that keeps failing. After the given number of
+ * consecutive failures the breaker opens and no calls are allowed until the
+ * open time has passed. Then a single trial call is let through which either
+ * closes the breaker again or keeps it open for another period. Other calls
+ * are refused while the trial runs; if it never reports back, the next trial
+ * is let through after another period.
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openMillis;
+    private final LongSupplier clock;
+
+    private int failures;
+    private long openUntil;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock the current time in milliseconds
+     */
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Whether a call may be made now. Once the breaker is open, a call
+     * allowed by this is the trial and must report its outcome.
+     */
+    public synchronized boolean allowRequest() {
+        if (failures < failureThreshold) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        if (now < openUntil) {
+            return false;
+        }
+        //half open, keep everyone else out while the trial runs
+        openUntil = now + openMillis;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        failures = 0;
+        openUntil = 0;
+    }
+
+    public synchronized void recordFailure() {
+        failures++;
+        if (failures >= failureThreshold) {
+            openUntil = clock.getAsLong() + openMillis;
+        }
+    }
+
+    /**
+     * Whether calls are refused now, which includes the time a trial runs.
+     */
+    public synchronized boolean isOpen() {
+        return failures >= failureThreshold && clock.getAsLong() < openUntil;
+    }
+}
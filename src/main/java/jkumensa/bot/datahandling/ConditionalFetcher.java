@@ -0,0 +1,173 @@
+package jkumensa.bot.datahandling;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import lombok.Getter;
+import lombok.Value;
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * Fetches a single page and remembers its validators and a hash of its
+ * content. The page is requested conditionally and only parsed if it has
+ * actually changed since the last committed parse.
+ */
+public class ConditionalFetcher {
+    private final String url;
+    private final String baseUri;
+    private final int timeout;
+
+    private String etag;
+    private String lastModified;
+    private byte[] hash;
+    private Page page;
+
+    public ConditionalFetcher(String url) {
+        this(url, 30000);
+    }
+
+    /**
+     * @param timeout in milliseconds, used for connecting and for reading
+     */
+    public ConditionalFetcher(String url, int timeout) {
+        this(url, timeout, url);
+    }
+
+    /**
+     * @param baseUri the original address of the page if it is fetched from
+     * a copy, used to resolve relative links
+     */
+    public ConditionalFetcher(String url, int timeout, String baseUri) {
+        this.url = url;
+        this.baseUri = baseUri;
+        this.timeout = timeout;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Fetches the page and parses it if it has changed. The new page only
+     * counts as known once the result is committed, so a result the caller
+     * drops, for example because it arrived too late, is fetched and parsed
+     * again the next time.
+     *
+     * @return the parsing result or null if the page is unchanged
+     */
+    public synchronized <T> Fetched<T> fetch(Parser<T> parser) throws Exception {
+        Connection c = Jsoup.connect(url).timeout(timeout).ignoreHttpErrors(true);
+        if (etag != null) {
+            c.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            c.header("If-Modified-Since", lastModified);
+        }
+
+        Connection.Response response = c.execute();
+        if (response.statusCode() == 304) {
+            return null;
+        } else if (response.statusCode() != 200) {
+            throw new IOException("Unexpected status " + response.statusCode() + " fetching " + url);
+        }
+
+        byte[] body = response.bodyAsBytes();
+        byte[] newHash = sha256(body);
+        if (Arrays.equals(hash, newHash)) {
+            //same content as the committed page, so its new validators can be taken over right away
+            this.etag = response.header("ETag");
+            this.lastModified = response.header("Last-Modified");
+            return null;
+        }
+
+        Document doc = Jsoup.parse(new ByteArrayInputStream(body), response.charset(), baseUri);
+        T result = parser.parse(doc);
+        Page fetched = new Page(response.header("ETag"), response.header("Last-Modified"), response.charset(), body);
+        return new Fetched<>(result, fetched, newHash, page);
+    }
+
+    /**
+     * Takes over the page of the result as the known one, unless another
+     * result was committed since it was fetched.
+     */
+    public synchronized void commit(Fetched<?> fetched) {
+        if (fetched.base != page) {
+            return;
+        }
+        this.etag = fetched.page.getEtag();
+        this.lastModified = fetched.page.getLastModified();
+        this.hash = fetched.hash;
+        this.page = fetched.page;
+    }
+
+    /**
+     * Parses a page stored earlier and takes over its validators as if it
+     * had just been fetched.
+     */
+    public synchronized <T> T restore(Page page, Parser<T> parser) throws Exception {
+        Document doc = Jsoup.parse(new ByteArrayInputStream(page.getBody()), page.getCharset(), baseUri);
+        T result = parser.parse(doc);
+        this.etag = page.getEtag();
+        this.lastModified = page.getLastModified();
+        this.hash = sha256(page.getBody());
+        this.page = page;
+        return result;
+    }
+
+    /**
+     * Returns the last page that was parsed successfully or null.
+     */
+    public synchronized Page getPage() {
+        return page;
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Value
+    public static class Page {
+        String etag;
+        String lastModified;
+        String charset;
+        byte[] body;
+    }
+
+    /**
+     * The result of parsing a changed page together with the page.
+     */
+    public static class Fetched<T> {
+        @Getter
+        private final T value;
+        private final Page page;
+        private final byte[] hash;
+        /**
+         * The committed page the new one was compared to.
+         */
+        private final Page base;
+
+        private Fetched(T value, Page page, byte[] hash, Page base) {
+            this.value = value;
+            this.page = page;
+            this.hash = hash;
+            this.base = base;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Parser<T> {
+        T parse(Document doc) throws Exception;
+    }
+}
@@ -1,143 +1,511 @@
 package jkumensa.bot.datahandling;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import jkumensa.api.Mensa;
 import jkumensa.api.MensaApiResult;
 import jkumensa.api.MensaCategory;
-import jkumensa.api.data.MensaApiResultData;
+import jkumensa.bot.datahandling.ConditionalFetcher.Fetched;
+import jkumensa.bot.metrics.Metrics;
 import jkumensa.parser.MensaDay;
-import jkumensa.parser.MensaDayData;
-import jkumensa.parser.jku.JkuMensaParser;
-import jkumensa.parser.khg.KhgMensaParser;
 import lombok.Getter;
 import lombok.Value;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DataProvider {
     public static final Logger logger = LoggerFactory.getLogger(DataProvider.class);
+    /**
+     * From this time on the next day is the relevant one.
+     */
+    public static final LocalTime DAY_SWITCH = LocalTime.of(17, 0);
 
     @Getter
-    private volatile MensaApiResult mensaData;
+    private volatile MenuIndex menuIndex = MenuIndex.EMPTY;
+    private volatile RelevantView relevantView;
 
-    private final Scheduler scheduler;
-    private Runnable onUpdate;
+    private final List<SourceState> sources;
+    private final ThreadPoolExecutor fetchExecutor;
+    private final int retries;
+    private final long deadlineMillis;
+    private final SnapshotStore snapshotStore;
+    @Getter
+    private final MenuArchive archive;
+    @Getter
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final List<Consumer<MenuChanges>> onUpdate = new CopyOnWriteArrayList<>();
 
     public DataProvider() {
-        this.scheduler = new Scheduler(this::update);
+        this(new Properties());
+    }
+
+    public DataProvider(Properties p) {
+        this(p, loadSources());
     }
 
+    public DataProvider(Properties p, List<? extends MensaSource> sources) {
+        int threads = Integer.parseInt(p.getProperty("fetch.threads", "4"));
+        AtomicInteger counter = new AtomicInteger();
+        this.fetchExecutor = new ThreadPoolExecutor(
+            threads, threads,
+            1, TimeUnit.MINUTES,
+            new ArrayBlockingQueue<>(16),
+            r -> {
+                Thread t = new Thread(r);
+                t.setName("MensaFetcher-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        );
+        this.fetchExecutor.allowCoreThreadTimeOut(true);
+
+        int breakerFailures = Integer.parseInt(p.getProperty("fetch.breaker.failures", "3"));
+        long breakerOpen = TimeUnit.MINUTES.toMillis(Long.parseLong(p.getProperty("fetch.breaker.openMinutes", "30")));
+        long jitter = TimeUnit.SECONDS.toMillis(Long.parseLong(p.getProperty("fetch.jitterSeconds", "300")));
+
+        String leader = null;
+        long followDelay = 0;
+        if ("follow".equals(p.getProperty("data.mode"))) {
+            leader = p.getProperty("data.leader");
+            if (leader == null || leader.isEmpty()) {
+                throw new IllegalArgumentException("data.leader is required to follow another instance");
+            }
+            leader = leader.endsWith("/") ? leader.substring(0, leader.length() - 1) : leader;
+            followDelay = Long.parseLong(p.getProperty("data.follow.delayMinutes", "10"));
+            logger.info("Following {} instead of fetching the sources", leader);
+        }
+
+        List<SourceState> states = new ArrayList<>();
+        for (MensaSource source : sources) {
+            String prefix = "fetch." + source.getName().toLowerCase(Locale.ROOT) + ".";
+            String raw = p.getProperty(prefix + "times");
+            Set<LocalTime> times = raw == null ? source.getUpdateTimes() : parseTimes(raw);
+            String url = source.getUrl();
+            if (leader != null) {
+                //the leader serves the pages it fetched, so only its own delay has to pass
+                url = leader + "/source/" + source.getName().toLowerCase(Locale.ROOT);
+                times = shiftTimes(times, followDelay);
+            }
+            SourceState state = new SourceState(
+                source,
+                new ConditionalFetcher(url, Integer.parseInt(p.getProperty(prefix + "timeout", "10000")), source.getUrl()),
+                new CircuitBreaker(breakerFailures, breakerOpen)
+            );
+            state.scheduler = new Scheduler(
+                source.getName(),
+                times,
+                jitter,
+                () -> update(Collections.singletonList(state))
+            );
+            Metrics.gauge("mensabot_data_age_seconds", "Seconds since the source was last fetched successfully",
+                () -> state.lastSuccess == 0 ? Double.NaN : (System.currentTimeMillis() - state.lastSuccess) / 1000.0,
+                "source", source.getName());
+            states.add(state);
+        }
+        this.sources = Collections.unmodifiableList(states);
+
+        this.retries = Integer.parseInt(p.getProperty("fetch.retries", "2"));
+        this.deadlineMillis = Long.parseLong(p.getProperty("fetch.deadline", "60000"));
+
+        String snapshot = p.getProperty("data.snapshot", "snapshot.dat");
+        this.snapshotStore = snapshot.isEmpty() ? null : new SnapshotStore(Paths.get(snapshot));
+
+        String archiveFile = p.getProperty("data.archive", "archive.dat");
+        MenuArchive a = null;
+        if (!archiveFile.isEmpty()) {
+            try {
+                a = new MenuArchive(Paths.get(archiveFile));
+            } catch (IOException ex) {
+                logger.error("Unable to open archive {}, history is disabled", archiveFile, ex);
+            }
+        }
+        this.archive = a;
+    }
+
+    private static List<MensaSource> loadSources() {
+        List<MensaSource> sources = new ArrayList<>();
+        ServiceLoader.load(MensaSource.class).forEach(sources::add);
+        logger.info("Found mensa sources {}", sources.stream().map(MensaSource::getName).collect(Collectors.toList()));
+        return sources;
+    }
+
+    private static Set<LocalTime> parseTimes(String raw) {
+        TreeSet<LocalTime> times = new TreeSet<>();
+        for (String t : raw.split(",")) {
+            times.add(LocalTime.parse(t.trim()));
+        }
+        return Collections.unmodifiableSet(times);
+    }
+
+    private static Set<LocalTime> shiftTimes(Set<LocalTime> times, long minutes) {
+        TreeSet<LocalTime> shifted = new TreeSet<>();
+        times.forEach(t -> shifted.add(t.plusMinutes(minutes)));
+        return Collections.unmodifiableSet(shifted);
+    }
+
+    /**
+     * Returns the last page of the source that was parsed successfully, which
+     * is what followers of this instance fetch.
+     *
+     * @param name of the source in any case
+     * @return the page or null if the source is unknown or has none yet
+     */
+    public ConditionalFetcher.Page getPage(String name) {
+        return sources.stream()
+            .filter(s -> s.source.getName().equalsIgnoreCase(name))
+            .findFirst()
+            .map(s -> s.fetcher.getPage())
+            .orElse(null);
+    }
+
+    /**
+     * Starts refreshing every source on its own schedule.
+     */
     public void start() {
-        scheduler.start();
+        sources.forEach(s -> s.scheduler.start());
     }
 
     public void stop() {
-        scheduler.stop();
+        sources.forEach(s -> s.scheduler.stop());
+        fetchExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the start of the next update of any source, which is the
+     * earliest time the data can change. Lies in the past while an update is
+     * running.
+     */
+    public ZonedDateTime getNextUpdateTime() {
+        return sources.stream()
+            .map(s -> s.scheduler.getNextUpdateTime())
+            .min(Comparator.naturalOrder())
+            .orElseGet(() -> ZonedDateTime.now(MenuIndex.ZONE).plusDays(1));
+    }
+
+    /**
+     * Returns the latest time the data of the next or running update is
+     * applied, which is its start plus the fetch deadline.
+     */
+    public ZonedDateTime getUpdateDoneTime() {
+        return getNextUpdateTime().plus(deadlineMillis, ChronoUnit.MILLIS);
+    }
+
+    /**
+     * Returns all mensen provided by the registered sources.
+     */
+    public List<Mensa> getMensas() {
+        return sources.stream()
+            .flatMap(s -> s.source.getMensas().stream())
+            .distinct()
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * The listener gets the menus that changed with every update; it is not
+     * called if the new data has exactly the same menus.
+     */
+    public void addOnUpdate(Consumer<MenuChanges> onUpdate) {
+        this.onUpdate.add(onUpdate);
+    }
+
+    /**
+     * Returns the menus of the day that is currently of interest. The day is
+     * determined on every call so no update is needed when it changes.
+     */
+    public MensaApiResult getMensaData() {
+        LocalDate day = getRelevantDay();
+        MenuIndex index = this.menuIndex;
+        RelevantView view = this.relevantView;
+        if (view == null || view.getIndex() != index || !view.getDay().equals(day)) {
+            view = new RelevantView(index, day, index.toResult(day));
+            relevantView = view;
+        }
+        return view.getResult();
+    }
+
+    /**
+     * Returns the menus of an arbitrary day which are empty if the day is
+     * not known.
+     */
+    public MensaApiResult getMensaData(LocalDate date) {
+        return menuIndex.toResult(date);
+    }
+
+    /**
+     * Loads the pages of the last snapshot instead of fetching them, which
+     * only takes a few milliseconds. The sources are still fetched on the
+     * next scheduled update, then conditionally to the restored pages.
+     *
+     * @return whether any data was loaded
+     */
+    public boolean loadSnapshot() {
+        if (snapshotStore == null) {
+            return false;
+        }
+
+        Map<String, ConditionalFetcher.Page> pages;
+        try {
+            pages = snapshotStore.read();
+        } catch (IOException ex) {
+            logger.warn("Unable to read snapshot {}", snapshotStore.getFile(), ex);
+            return false;
+        }
+
+        Map<Mensa, List<? extends MensaDay>> restored = new EnumMap<>(Mensa.class);
+        for (SourceState s : sources) {
+            ConditionalFetcher.Page page = pages.get(s.source.getName());
+            if (page != null) {
+                try {
+                    putNonNull(restored, s.fetcher.restore(page, s.source::parse));
+                } catch (Exception ex) {
+                    logger.warn("Unable to restore source {} from snapshot", s.source.getName(), ex);
+                }
+            }
+        }
+        logger.info("Restored {} from snapshot", restored.keySet());
+        apply(restored, false);
+        return !restored.isEmpty();
     }
 
-    public void setOnUpdate(Runnable onUpdate) {
-        this.onUpdate = onUpdate;
+    private void writeSnapshot() {
+        Map<String, ConditionalFetcher.Page> pages = new LinkedHashMap<>();
+        for (SourceState s : sources) {
+            ConditionalFetcher.Page page = s.fetcher.getPage();
+            if (page != null) {
+                pages.put(s.source.getName(), page);
+            }
+        }
+        try {
+            snapshotStore.write(pages);
+        } catch (IOException ex) {
+            logger.error("Unable to write snapshot {}", snapshotStore.getFile(), ex);
+        }
     }
 
+    /**
+     * Refreshes all sources at once.
+     */
     public void update() {
-        LocalDate relevantDay = getRelevantDay();
-        Map<Mensa, Future<List<? extends MensaDay>>> fs = fetchData();
+        update(sources);
+    }
 
-        EnumMap<Mensa, List<? extends MensaCategory>> newData = new EnumMap<>(Mensa.class);
-        for (Mensa m : fs.keySet()) {
+    private void update(List<SourceState> which) {
+        long deadline = System.currentTimeMillis() + deadlineMillis;
+        Map<SourceState, Future<Fetched<Map<Mensa, List<? extends MensaDay>>>>> fs = new LinkedHashMap<>();
+        for (SourceState s : which) {
+            fs.put(s, fetch(s, deadline));
+        }
+
+        Map<Mensa, List<? extends MensaDay>> changed = new EnumMap<>(Mensa.class);
+        for (Map.Entry<SourceState, Future<Fetched<Map<Mensa, List<? extends MensaDay>>>>> e : fs.entrySet()) {
+            String name = e.getKey().source.getName();
             try {
-                Future<List<? extends MensaDay>> f = fs.get(m);
-                MensaDay day = filterByDate(f.get(), relevantDay);
-                if (day == null) {
-                    logger.info("No data was found for relevant day for {}, skipping", m);
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                Fetched<Map<Mensa, List<? extends MensaDay>>> fetched = e.getValue().get(remaining, TimeUnit.MILLISECONDS);
+                if (fetched == null) {
+                    logger.debug("Source {} is unchanged", name);
                 } else {
-                    newData.put(m, day.getCategories());
+                    putNonNull(changed, fetched.getValue());
+                    //only a result that is applied counts as known, a late one is fetched again next time
+                    e.getKey().fetcher.commit(fetched);
                 }
+            } catch (TimeoutException ex) {
+                logger.error("Update deadline passed before source {} arrived, keeping old data", name);
             } catch (Exception ex) {
-                logger.error("Unable to update mensa {}", m, ex);
+                logger.error("Unable to update source {}, keeping old data", name, ex);
             }
         }
-        mensaData = new MensaApiResultData(relevantDay.atStartOfDay(ZoneId.of("Europe/Vienna")).toEpochSecond(), newData);
+        apply(changed, true);
+    }
 
-        triggerOnUpdateListeners();
+    private static void putNonNull(Map<Mensa, List<? extends MensaDay>> target, Map<Mensa, List<? extends MensaDay>> days) {
+        days.forEach((m, d) -> {
+            if (d != null) {
+                target.put(m, d);
+            }
+        });
     }
 
-    private void triggerOnUpdateListeners() {
-        try {
-            if (onUpdate != null) {
-                onUpdate.run();
+    /**
+     * Replaces the days of the changed mensen and keeps all others.
+     *
+     * @param persist whether to write a new snapshot
+     */
+    private synchronized void apply(Map<Mensa, List<? extends MensaDay>> changed, boolean persist) {
+        if (changed.isEmpty()) {
+            logger.info("Nothing has changed, skipping update");
+            return;
+        }
+
+        MenuIndex old = menuIndex;
+        MenuIndex.Builder builder = new MenuIndex.Builder();
+        for (Mensa m : Mensa.values()) {
+            List<? extends MensaDay> days = changed.get(m);
+            if (days == null) {
+                builder.putAll(m, old);
+            } else {
+                builder.put(m, days);
             }
-        } catch (Exception ex) {
-            logger.error("Exception running onUpdate handler!", ex);
         }
-    }
+        MenuIndex current = builder.build(LocalDate.now(MenuIndex.ZONE));
+        MenuChanges changes = MenuChanges.between(old, current);
 
-    private Map<Mensa, Future<List<? extends MensaDay>>> fetchData() {
-        HashMap<Mensa, Future<List<? extends MensaDay>>> data = new HashMap<>();
+        if (persist && snapshotStore != null) {
+            writeSnapshot();
+        }
+        if (changes.isEmpty()) {
+            logger.info("Pages of {} changed but their menus are the same, skipping update", changed.keySet());
+            return;
+        }
 
-        CompletableFuture<List<? extends MensaDay>> classic = new CompletableFuture<>();
-        CompletableFuture<List<? extends MensaDay>> choice = new CompletableFuture<>();
-        new Thread(() -> {
+        menuIndex = current;
+        logger.info("Updated menus of {} for days {}, changed {}", changed.keySet(), menuIndex.getDates(), changes);
+        searchIndex.update(menuIndex);
+        if (archive != null) {
             try {
-                Document doc = Jsoup.connect("http://menu.mensen.at/index/index/locid/1").get();
-                JkuMensaParser jmp = new JkuMensaParser();
-                Map<JkuMensaParser.MensaSubType, List<MensaDayData>> r = jmp.parse(doc);
-                classic.complete(r.get(JkuMensaParser.MensaSubType.CLASSIC));
-                choice.complete(r.get(JkuMensaParser.MensaSubType.CHOICE));
-            } catch (Exception ex) {
-                classic.completeExceptionally(ex);
-                choice.completeExceptionally(ex);
+                archive.record(menuIndex);
+            } catch (IOException ex) {
+                logger.error("Unable to archive menus", ex);
             }
-        }).start();
-        data.put(Mensa.CLASSIC, classic);
-        data.put(Mensa.CHOICE, choice);
+        }
+        triggerOnUpdateListeners(changes);
+    }
 
-        CompletableFuture<List<? extends MensaDay>> khg = new CompletableFuture<>();
-        new Thread(() -> {
+    private void triggerOnUpdateListeners(MenuChanges changes) {
+        for (Consumer<MenuChanges> c : onUpdate) {
             try {
-                Document doc = Jsoup.connect("https://www.dioezese-linz.at/institution/8075/essen/menueplan").get();
-                KhgMensaParser khgp = new KhgMensaParser();
-                List<MensaDayData> r = khgp.parse(doc);
-                khg.complete(r);
+                c.accept(changes);
             } catch (Exception ex) {
-                khg.completeExceptionally(ex);
+                logger.error("Exception running onUpdate handler!", ex);
             }
-        }).start();
-        data.put(Mensa.KHG, khg);
+        }
+    }
 
-        return data;
+    private Future<Fetched<Map<Mensa, List<? extends MensaDay>>>> fetch(SourceState s, long deadline) {
+        try {
+            return fetchExecutor.submit(() -> fetchGuarded(s, deadline));
+        } catch (RejectedExecutionException ex) {
+            CompletableFuture<Fetched<Map<Mensa, List<? extends MensaDay>>>> f = new CompletableFuture<>();
+            f.completeExceptionally(ex);
+            return f;
+        }
     }
 
-    private MensaDay filterByDate(List<? extends MensaDay> parsingResult, LocalDate date) {
-        Map<LocalDate, MensaDay> mapped = parsingResult.stream().collect(Collectors.toMap(MensaDay::getDate, d -> d));
-        MensaDay currentDay = mapped.get(date);
-        return currentDay;
+    /**
+     * Fetches the source with jittered exponential backoff between the
+     * attempts. Nothing is fetched while the circuit breaker of the source is
+     * open and no attempt is started that would end after the deadline.
+     *
+     * @return the parsed days or null if the source is unchanged
+     */
+    private Fetched<Map<Mensa, List<? extends MensaDay>>> fetchGuarded(SourceState s, long deadline) throws Exception {
+        String name = s.source.getName();
+        if (!s.breaker.allowRequest()) {
+            throw new IOException("Circuit breaker of " + name + " is open");
+        }
+
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            try {
+                Fetched<Map<Mensa, List<? extends MensaDay>>> result = s.fetcher.fetch(doc -> {
+                    long parseStart = System.nanoTime();
+                    try {
+                        return s.source.parse(doc);
+                    } finally {
+                        Metrics.SOURCE_PARSE_DURATION.labels(name).observeSince(parseStart);
+                    }
+                });
+                Metrics.SOURCE_FETCH_DURATION.labels(name).observeSince(start);
+                s.breaker.recordSuccess();
+                s.lastSuccess = System.currentTimeMillis();
+                return result;
+            } catch (Exception ex) {
+                Metrics.SOURCE_FETCH_DURATION.labels(name).observeSince(start);
+                Metrics.SOURCE_ERRORS.labels(name).inc();
+                long backoff = (long) (1000 * Math.pow(2, attempt) * ThreadLocalRandom.current().nextDouble(0.5, 1.5));
+                if (attempt >= retries || System.currentTimeMillis() + backoff + s.fetcher.getTimeout() > deadline) {
+                    s.breaker.recordFailure();
+                    if (s.breaker.isOpen()) {
+                        logger.warn("Opening circuit breaker of {}", name);
+                    }
+                    throw ex;
+                }
+                logger.warn("Fetching {} failed, retrying in {}ms", name, backoff, ex);
+                Thread.sleep(backoff);
+            }
+        }
     }
 
-    private LocalDate getRelevantDay() {
-        LocalDateTime reqDate = LocalDateTime.now(ZoneId.of("Europe/Vienna"));
-        if (reqDate.getHour() > 16) { //switch to new day after mid-day
+    public LocalDate getRelevantDay() {
+        LocalDateTime reqDate = LocalDateTime.now(MenuIndex.ZONE);
+        if (!reqDate.toLocalTime().isBefore(DAY_SWITCH)) { //switch to new day after mid-day
             reqDate = reqDate.plusDays(1);
         }
         if (reqDate.getDayOfWeek().getValue() >= DayOfWeek.SATURDAY.getValue()) {
             reqDate = reqDate.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
         }
-        LocalDate date = reqDate.toLocalDate();
-        logger.debug("Determined interesting mensa date as {}", date);
-        return date;
+        return reqDate.toLocalDate();
+    }
+
+    /**
+     * Returns the next time the relevant day or the current date changes,
+     * which is the day switch or midnight.
+     */
+    public static ZonedDateTime getNextDayChange(ZonedDateTime now) {
+        ZonedDateTime daySwitch = now.toLocalDate().atTime(DAY_SWITCH).atZone(now.getZone());
+        return daySwitch.isAfter(now) ? daySwitch : now.toLocalDate().plusDays(1).atStartOfDay(now.getZone());
+    }
+
+    private static class SourceState {
+        private final MensaSource source;
+        private final ConditionalFetcher fetcher;
+        private final CircuitBreaker breaker;
+        private Scheduler scheduler;
+        private volatile long lastSuccess;
+
+        SourceState(MensaSource source, ConditionalFetcher fetcher, CircuitBreaker breaker) {
+            this.source = source;
+            this.fetcher = fetcher;
+            this.breaker = breaker;
+        }
+    }
+
+    @Value
+    private static class RelevantView {
+        MenuIndex index;
+        LocalDate day;
+        MensaApiResult result;
     }
 
     @Value
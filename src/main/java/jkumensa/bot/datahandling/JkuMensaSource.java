@@ -0,0 +1,45 @@
+package jkumensa.bot.datahandling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import jkumensa.api.Mensa;
+import jkumensa.parser.MensaDay;
+import jkumensa.parser.MensaDayData;
+import jkumensa.parser.jku.JkuMensaParser;
+import org.jsoup.nodes.Document;
+
+/**
+ * The page of the JKU mensa which contains both CLASSIC and CHOICE.
+ */
+public class JkuMensaSource implements MensaSource {
+    @Override
+    public String getName() {
+        return "JKU";
+    }
+
+    @Override
+    public String getUrl() {
+        return "http://menu.mensen.at/index/index/locid/1";
+    }
+
+    @Override
+    public List<Mensa> getMensas() {
+        return Arrays.asList(Mensa.CLASSIC, Mensa.CHOICE);
+    }
+
+    @Override
+    public Map<Mensa, List<? extends MensaDay>> parse(Document doc) {
+        Map<JkuMensaParser.MensaSubType, List<MensaDayData>> r = new JkuMensaParser().parse(doc);
+        if (r == null) {
+            //no menus found, the null days keep the old data
+            r = Collections.emptyMap();
+        }
+        Map<Mensa, List<? extends MensaDay>> days = new EnumMap<>(Mensa.class);
+        days.put(Mensa.CLASSIC, r.get(JkuMensaParser.MensaSubType.CLASSIC));
+        days.put(Mensa.CHOICE, r.get(JkuMensaParser.MensaSubType.CHOICE));
+        return days;
+    }
+}
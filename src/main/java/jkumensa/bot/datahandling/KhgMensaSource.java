@@ -0,0 +1,37 @@
+package jkumensa.bot.datahandling;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import jkumensa.api.Mensa;
+import jkumensa.parser.MensaDay;
+import jkumensa.parser.khg.KhgMensaParser;
+import org.jsoup.nodes.Document;
+
+/**
+ * The menu plan of the KHG mensa.
+ */
+public class KhgMensaSource implements MensaSource {
+    @Override
+    public String getName() {
+        return "KHG";
+    }
+
+    @Override
+    public String getUrl() {
+        return "https://www.dioezese-linz.at/institution/8075/essen/menueplan";
+    }
+
+    @Override
+    public List<Mensa> getMensas() {
+        return Collections.singletonList(Mensa.KHG);
+    }
+
+    @Override
+    public Map<Mensa, List<? extends MensaDay>> parse(Document doc) {
+        Map<Mensa, List<? extends MensaDay>> days = new EnumMap<>(Mensa.class);
+        days.put(Mensa.KHG, new KhgMensaParser().parse(doc));
+        return days;
+    }
+}
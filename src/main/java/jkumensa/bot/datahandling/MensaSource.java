@@ -0,0 +1,42 @@
+package jkumensa.bot.datahandling;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import jkumensa.api.Mensa;
+import jkumensa.parser.MensaDay;
+import org.jsoup.nodes.Document;
+
+/**
+ * A web page providing the menus of one or more mensen. Sources are found by
+ * the {@link java.util.ServiceLoader}, so additional ones only need to be
+ * registered in {@code META-INF/services/jkumensa.bot.datahandling.MensaSource}.
+ */
+public interface MensaSource {
+    /**
+     * Short name of the source, also used for its settings as
+     * {@code fetch.<name in lower case>.*}.
+     */
+    String getName();
+
+    String getUrl();
+
+    /**
+     * The mensen whose menus are on the page, in the order they should be
+     * offered to users.
+     */
+    List<Mensa> getMensas();
+
+    /**
+     * Extracts all days of all mensen from the page.
+     */
+    Map<Mensa, List<? extends MensaDay>> parse(Document doc) throws Exception;
+
+    /**
+     * Times of the day at which the source is refreshed.
+     */
+    default Set<LocalTime> getUpdateTimes() {
+        return Scheduler.DEFAULT_UPDATE_TIMES;
+    }
+}
@@ -0,0 +1,216 @@
+package jkumensa.bot.datahandling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.data.MensaApiResultData;
+import jkumensa.api.serialization.OrgjsonMensaSerialization;
+import lombok.Value;
+
+/**
+ * Append-only archive of all menus ever seen, one record per date and mensa.
+ * The records are the json of the day and mensa and live in a data file; a
+ * small index file maps date and mensa to the position of the latest record.
+ * The index is kept in memory so a date range is found without touching the
+ * data file.
+ */
+public class MenuArchive {
+    private final Path dataFile;
+    private final Path indexFile;
+    private volatile NavigableMap<LocalDate, Map<Mensa, Entry>> index = Collections.emptyNavigableMap();
+
+    public MenuArchive(Path dataFile) throws IOException {
+        this.dataFile = dataFile;
+        this.indexFile = dataFile.resolveSibling(dataFile.getFileName() + ".idx");
+        loadIndex();
+    }
+
+    private void loadIndex() throws IOException {
+        TreeMap<LocalDate, Map<Mensa, Entry>> idx = new TreeMap<>();
+        if (Files.exists(indexFile)) {
+            long dataLength = Files.exists(dataFile) ? Files.size(dataFile) : 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                while (true) {
+                    LocalDate date = LocalDate.ofEpochDay(in.readInt());
+                    String mensaName = in.readUTF();
+                    Entry e = new Entry(in.readLong(), in.readInt(), in.readLong());
+                    if (e.getOffset() + e.getLength() > dataLength) {
+                        break; //data was not completely written
+                    }
+                    try {
+                        idx.computeIfAbsent(date, d -> new EnumMap<>(Mensa.class)).put(Mensa.valueOf(mensaName), e);
+                    } catch (IllegalArgumentException ex) {
+                        //mensa does not exist anymore
+                    }
+                }
+            } catch (EOFException ex) {
+                //end of index, a partially written entry is ignored
+            }
+        }
+        index = idx;
+    }
+
+    /**
+     * Appends every date and mensa of the index whose menu differs from the
+     * latest archived one.
+     */
+    public synchronized void record(MenuIndex menus) throws IOException {
+        TreeMap<LocalDate, Map<Mensa, Entry>> idx = new TreeMap<>();
+        index.forEach((date, entries) -> idx.put(date, new EnumMap<>(entries)));
+
+        long offset = Files.exists(dataFile) ? Files.size(dataFile) : 0;
+        boolean appended = false;
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(dataFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            DataOutputStream idxOut = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(indexFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+
+            OrgjsonMensaSerialization s = new OrgjsonMensaSerialization();
+            for (LocalDate date : menus.getDates()) {
+                for (Map.Entry<Mensa, List<? extends MensaCategory>> m : menus.get(date).entrySet()) {
+                    EnumMap<Mensa, List<? extends MensaCategory>> single = new EnumMap<>(Mensa.class);
+                    single.put(m.getKey(), m.getValue());
+                    byte[] json = s.toJson(new MensaApiResultData(date.atStartOfDay(MenuIndex.ZONE).toEpochSecond(), single))
+                        .getBytes(StandardCharsets.UTF_8);
+                    long hash = hash(json);
+
+                    Map<Mensa, Entry> entries = idx.computeIfAbsent(date, d -> new EnumMap<>(Mensa.class));
+                    Entry latest = entries.get(m.getKey());
+                    if (latest != null && latest.getHash() == hash) {
+                        continue;
+                    }
+
+                    data.write(json);
+                    Entry e = new Entry(offset, json.length, hash);
+                    offset += json.length;
+                    entries.put(m.getKey(), e);
+
+                    idxOut.writeInt((int) date.toEpochDay());
+                    idxOut.writeUTF(m.getKey().name());
+                    idxOut.writeLong(e.getOffset());
+                    idxOut.writeInt(e.getLength());
+                    idxOut.writeLong(e.getHash());
+                    appended = true;
+                }
+            }
+            //data before index so that an index entry never points to missing data
+            data.flush();
+            idxOut.flush();
+        }
+        if (appended) {
+            index = idx;
+        }
+    }
+
+    /**
+     * Streams the archived menus of the date range as a json array of
+     * objects with date, mensa and data.
+     *
+     * @param mensa only this mensa or all if null
+     */
+    public InputStream stream(LocalDate from, LocalDate to, Mensa mensa) throws IOException {
+        List<Item> items = new ArrayList<>();
+        for (Map.Entry<LocalDate, Map<Mensa, Entry>> day : index.subMap(from, true, to, true).entrySet()) {
+            for (Map.Entry<Mensa, Entry> e : day.getValue().entrySet()) {
+                if (mensa == null || mensa == e.getKey()) {
+                    items.add(new Item(day.getKey(), e.getKey(), e.getValue()));
+                }
+            }
+        }
+
+        RandomAccessFile raf = Files.exists(dataFile) ? new RandomAccessFile(dataFile.toFile(), "r") : null;
+        Iterator<Item> it = items.iterator();
+        Enumeration<InputStream> parts = new Enumeration<InputStream>() {
+            private boolean first = true;
+            private boolean done = false;
+
+            @Override
+            public boolean hasMoreElements() {
+                return !done;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!it.hasNext()) {
+                    done = true;
+                    return bytes(first ? "[]" : "]");
+                }
+                Item item = it.next();
+                String prefix = (first ? "[" : ",")
+                    + "{\"date\":\"" + item.getDate() + "\",\"mensa\":\"" + item.getMensa() + "\",\"data\":";
+                first = false;
+                byte[] record = new byte[item.getEntry().getLength()];
+                try {
+                    raf.seek(item.getEntry().getOffset());
+                    raf.readFully(record);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return new SequenceInputStream(bytes(prefix), new SequenceInputStream(new ByteArrayInputStream(record), bytes("}")));
+            }
+        };
+
+        return new SequenceInputStream(parts) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (raf != null) {
+                    raf.close();
+                }
+            }
+        };
+    }
+
+    private static InputStream bytes(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long hash(byte[] data) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(data)).getLong();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Value
+    private static class Entry {
+        long offset;
+        int length;
+        long hash;
+    }
+
+    @Value
+    private static class Item {
+        LocalDate date;
+        Mensa mensa;
+        Entry entry;
+    }
+}
@@ -0,0 +1,148 @@
+package jkumensa.bot.datahandling;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.MensaMeal;
+import jkumensa.api.Priced;
+import lombok.Getter;
+
+/**
+ * The menus that differ between two indexes, per day and mensa. Two menus
+ * are equal if all categories and meals have the same titles, prices, food
+ * characteristics and allergy codes in the same order.
+ */
+public class MenuChanges {
+    public enum Change {
+        ADDED, REMOVED, CHANGED
+    }
+
+    @Getter
+    private final MenuIndex old;
+    @Getter
+    private final MenuIndex current;
+    private final NavigableMap<LocalDate, Map<Mensa, Change>> changes;
+
+    private MenuChanges(MenuIndex old, MenuIndex current, NavigableMap<LocalDate, Map<Mensa, Change>> changes) {
+        this.old = old;
+        this.current = current;
+        this.changes = changes;
+    }
+
+    /**
+     * Compares every menu of both indexes. Menus that were taken over from
+     * the old index are the same instance and are skipped right away.
+     */
+    public static MenuChanges between(MenuIndex old, MenuIndex current) {
+        NavigableMap<LocalDate, Map<Mensa, Change>> changes = new TreeMap<>();
+        Set<LocalDate> dates = new TreeSet<>(old.getDates());
+        dates.addAll(current.getDates());
+        for (LocalDate date : dates) {
+            Map<Mensa, List<? extends MensaCategory>> before = old.get(date);
+            Map<Mensa, List<? extends MensaCategory>> after = current.get(date);
+            EnumMap<Mensa, Change> day = new EnumMap<>(Mensa.class);
+            for (Mensa mensa : Mensa.values()) {
+                List<? extends MensaCategory> a = before.get(mensa);
+                List<? extends MensaCategory> b = after.get(mensa);
+                if (a == null && b != null) {
+                    day.put(mensa, Change.ADDED);
+                } else if (a != null && b == null) {
+                    day.put(mensa, Change.REMOVED);
+                } else if (a != null && !sameCategories(a, b)) {
+                    day.put(mensa, Change.CHANGED);
+                }
+            }
+            if (!day.isEmpty()) {
+                changes.put(date, Collections.unmodifiableMap(day));
+            }
+        }
+        return new MenuChanges(old, current, changes);
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public Set<LocalDate> getDates() {
+        return Collections.unmodifiableSet(changes.keySet());
+    }
+
+    /**
+     * @return the changed mensen of the day, empty if nothing changed
+     */
+    public Map<Mensa, Change> get(LocalDate date) {
+        return changes.getOrDefault(date, Collections.emptyMap());
+    }
+
+    public boolean isChanged(LocalDate date, Mensa mensa) {
+        return get(date).containsKey(mensa);
+    }
+
+    /**
+     * @return the mensen changed on any day
+     */
+    public Set<Mensa> getMensas() {
+        Set<Mensa> mensas = EnumSet.noneOf(Mensa.class);
+        changes.values().forEach(m -> mensas.addAll(m.keySet()));
+        return mensas;
+    }
+
+    @Override
+    public String toString() {
+        return changes.toString();
+    }
+
+    static boolean sameCategories(List<? extends MensaCategory> a, List<? extends MensaCategory> b) {
+        if (a == b) {
+            return true;
+        } else if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            MensaCategory x = a.get(i);
+            MensaCategory y = b.get(i);
+            if (!Objects.equals(x.getTitle(), y.getTitle())
+                || !samePrices(x, y)
+                || !Objects.equals(x.getFoodCharacteristics(), y.getFoodCharacteristics())
+                || !sameMeals(x.getMeals(), y.getMeals())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameMeals(List<? extends MensaMeal> a, List<? extends MensaMeal> b) {
+        if (a == null || b == null) {
+            return a == b;
+        } else if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            MensaMeal x = a.get(i);
+            MensaMeal y = b.get(i);
+            if (!Objects.equals(x.getTitle(), y.getTitle())
+                || !samePrices(x, y)
+                || !Objects.equals(x.getFoodCharacteristics(), y.getFoodCharacteristics())
+                || !Objects.equals(x.getAllergyCodes(), y.getAllergyCodes())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean samePrices(Priced x, Priced y) {
+        return Float.compare(x.getPriceGuest(), y.getPriceGuest()) == 0
+            && Float.compare(x.getPriceStudent(), y.getPriceStudent()) == 0
+            && Float.compare(x.getPriceStudentBonus(), y.getPriceStudentBonus()) == 0;
+    }
+}
@@ -0,0 +1,91 @@
+package jkumensa.bot.datahandling;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaApiResult;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.data.MensaApiResultData;
+import jkumensa.parser.MensaDay;
+
+/**
+ * Immutable index of all parsed menus by date and mensa.
+ */
+public class MenuIndex {
+    public static final ZoneId ZONE = ZoneId.of("Europe/Vienna");
+    public static final MenuIndex EMPTY = new MenuIndex(new TreeMap<>());
+
+    private final NavigableMap<LocalDate, Map<Mensa, List<? extends MensaCategory>>> days;
+
+    private MenuIndex(NavigableMap<LocalDate, Map<Mensa, List<? extends MensaCategory>>> days) {
+        this.days = days;
+    }
+
+    /**
+     * Returns the menus of all mensen for the date, which is empty if
+     * nothing is known about the date.
+     */
+    public Map<Mensa, List<? extends MensaCategory>> get(LocalDate date) {
+        return days.getOrDefault(date, Collections.emptyMap());
+    }
+
+    public List<? extends MensaCategory> get(LocalDate date, Mensa mensa) {
+        return get(date).get(mensa);
+    }
+
+    public NavigableSet<LocalDate> getDates() {
+        return Collections.unmodifiableNavigableSet(days.navigableKeySet());
+    }
+
+    /**
+     * Creates the api view of a single day.
+     */
+    public MensaApiResult toResult(LocalDate date) {
+        return new MensaApiResultData(date.atStartOfDay(ZONE).toEpochSecond(), get(date));
+    }
+
+    public static class Builder {
+        private final TreeMap<LocalDate, EnumMap<Mensa, List<? extends MensaCategory>>> days = new TreeMap<>();
+
+        public Builder put(Mensa mensa, List<? extends MensaDay> parsed) {
+            for (MensaDay day : parsed) {
+                put(mensa, day.getDate(), day.getCategories());
+            }
+            return this;
+        }
+
+        /**
+         * Takes over all days of the mensa from an older index, for example
+         * when the source of the mensa could not be reached.
+         */
+        public Builder putAll(Mensa mensa, MenuIndex old) {
+            for (Map.Entry<LocalDate, Map<Mensa, List<? extends MensaCategory>>> e : old.days.entrySet()) {
+                List<? extends MensaCategory> cats = e.getValue().get(mensa);
+                if (cats != null) {
+                    put(mensa, e.getKey(), cats);
+                }
+            }
+            return this;
+        }
+
+        private void put(Mensa mensa, LocalDate date, List<? extends MensaCategory> categories) {
+            days.computeIfAbsent(date, d -> new EnumMap<>(Mensa.class)).put(mensa, categories);
+        }
+
+        /**
+         * @param oldest days before are dropped
+         */
+        public MenuIndex build(LocalDate oldest) {
+            TreeMap<LocalDate, Map<Mensa, List<? extends MensaCategory>>> m = new TreeMap<>();
+            days.tailMap(oldest, true).forEach((date, mensen) -> m.put(date, Collections.unmodifiableMap(mensen)));
+            return new MenuIndex(m);
+        }
+    }
+}
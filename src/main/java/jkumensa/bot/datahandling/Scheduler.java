@@ -6,14 +6,14 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Collections;
-import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Stream;
 import static jkumensa.bot.datahandling.DataProvider.logger;
 
 public class Scheduler {
-    private static final Set<LocalTime> UPDATE_TIMES;
+    public static final Set<LocalTime> DEFAULT_UPDATE_TIMES;
     static {
         TreeSet<LocalTime> ut = new TreeSet<>();
         ut.add(LocalTime.of(8, 0));
@@ -23,13 +23,26 @@ public class Scheduler {
         ut.add(LocalTime.of(16, 0));
         ut.add(LocalTime.of(18, 0));
         ut.add(LocalTime.of(23, 0));
-        UPDATE_TIMES = Collections.unmodifiableSet(ut);
+        DEFAULT_UPDATE_TIMES = Collections.unmodifiableSet(ut);
     }
     
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+
     private volatile Thread updater;
+    private volatile ZonedDateTime nextUpdate;
+    private final String name;
+    private final Set<LocalTime> updateTimes;
+    private final long jitterMillis;
     private final Runnable onTrigger;
 
-    public Scheduler(Runnable onTrigger) {
+    /**
+     * @param jitterMillis every wake up is delayed by a random time up to this
+     * value so that schedulers sharing the same times do not all fire at once
+     */
+    public Scheduler(String name, Set<LocalTime> updateTimes, long jitterMillis, Runnable onTrigger) {
+        this.name = name;
+        this.updateTimes = updateTimes;
+        this.jitterMillis = jitterMillis;
         this.onTrigger = onTrigger;
     }
     
@@ -38,35 +51,54 @@ public class Scheduler {
             throw new IllegalStateException("Updated already running!");
         }
         updater = new Thread(() -> {
+            nextUpdate = ZonedDateTime.now(ZONE);
             onTrigger.run();
             while (!Thread.interrupted()) {
                 logger.info("Calculating sleep time...");
-                ZoneId zoneId = ZoneId.of("Europe/Berlin");
-                ZonedDateTime now = ZonedDateTime.now(zoneId);
-
-                Optional<ZonedDateTime> nextDateTime = Stream.concat(
-                    UPDATE_TIMES.stream().map(lt -> ZonedDateTime.of(LocalDate.now(), lt, zoneId)),
-                    UPDATE_TIMES.stream().map(lt -> ZonedDateTime.of(LocalDate.now().plusDays(1), lt, zoneId))
-                ).filter(dt -> dt.isAfter(now))
-                    .sorted()
-                    .findFirst();
+                ZonedDateTime now = ZonedDateTime.now(ZONE);
+                ZonedDateTime next = getNextUpdateTime(updateTimes, now);
 
-                logger.info("Wake up at {}", nextDateTime.get());
-                long sleepTime = now.until(nextDateTime.get(), ChronoUnit.MILLIS);
+                long jitter = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0;
+                logger.info("Wake up {} at {} (+{}ms)", name, next, jitter);
+                nextUpdate = next.plus(jitter, ChronoUnit.MILLIS);
+                long sleepTime = now.until(next, ChronoUnit.MILLIS) + jitter;
                 try {
                     Thread.sleep(sleepTime);
                 } catch (InterruptedException ex) {
                     break;
                 }
-                logger.info("Done sleeping updating now at {}", ZonedDateTime.now(zoneId));
+                logger.info("Done sleeping updating {} now at {}", name, ZonedDateTime.now(ZONE));
                 onTrigger.run();
             }
         });
-        updater.setName("MensaUpdater");
+        updater.setName("MensaUpdater-" + name);
         updater.setDaemon(true);
         updater.start();
     }
 
+    /**
+     * Returns the time the next update starts including its jitter. While an
+     * update is running this is the time it started, so it lies in the past.
+     */
+    public ZonedDateTime getNextUpdateTime() {
+        ZonedDateTime next = nextUpdate;
+        if (next == null) {
+            next = getNextUpdateTime(updateTimes, ZonedDateTime.now(ZONE));
+        }
+        return next;
+    }
+
+    static ZonedDateTime getNextUpdateTime(Set<LocalTime> updateTimes, ZonedDateTime now) {
+        LocalDate today = now.toLocalDate();
+        return Stream.concat(
+            updateTimes.stream().map(lt -> ZonedDateTime.of(today, lt, now.getZone())),
+            updateTimes.stream().map(lt -> ZonedDateTime.of(today.plusDays(1), lt, now.getZone()))
+        ).filter(dt -> dt.isAfter(now))
+            .sorted()
+            .findFirst()
+            .get();
+    }
+
     public void stop() {
         if (updater != null) {
             updater.interrupt();
@@ -0,0 +1,215 @@
+package jkumensa.bot.datahandling;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.MensaMeal;
+import lombok.Value;
+
+/**
+ * Inverted index over the titles of all known meals and categories.
+ * <p>
+ * Words are lower cased, umlauts are folded (ä to ae, ß to ss) and common
+ * german endings are cut off so "Knödel" finds "Knödeln". Since german
+ * composes words with the main part at the end, every word is also indexed
+ * under its longer endings so "schnitzel" finds "Putenschnitzel".
+ * <p>
+ * On update only the days and mensen whose menu has changed are indexed
+ * again. Lookups may run concurrently to an update.
+ */
+public class SearchIndex {
+    private static final Pattern WORD_SPLIT = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final String[] SUFFIXES = {"ern", "em", "en", "er", "es", "e", "n", "s"};
+    private static final int MIN_STEM = 3;
+    private static final int MIN_PART = 4;
+
+    private final Map<String, Set<Hit>> postings = new ConcurrentHashMap<>();
+    private final Map<Key, Indexed> documents = new HashMap<>();
+
+    /**
+     * Indexes the days and mensen that differ from the last call and drops
+     * those no longer present.
+     */
+    public synchronized void update(MenuIndex index) {
+        Set<Key> seen = new LinkedHashSet<>();
+        for (LocalDate date : index.getDates()) {
+            for (Map.Entry<Mensa, List<? extends MensaCategory>> e : index.get(date).entrySet()) {
+                Key key = new Key(date, e.getKey());
+                seen.add(key);
+                Indexed old = documents.get(key);
+                //unchanged mensen keep their lists when the index is rebuilt
+                if (old != null && old.getCategories() == e.getValue()) {
+                    continue;
+                }
+                if (old != null) {
+                    remove(old);
+                }
+                documents.put(key, add(key, e.getValue()));
+            }
+        }
+
+        documents.entrySet().removeIf(e -> {
+            if (seen.contains(e.getKey())) {
+                return false;
+            }
+            remove(e.getValue());
+            return true;
+        });
+    }
+
+    private Indexed add(Key key, List<? extends MensaCategory> categories) {
+        Map<Hit, Set<String>> terms = new HashMap<>();
+        for (MensaCategory cat : categories) {
+            Set<String> catTerms = terms(cat.getTitle(), true);
+            if (cat.getMeals().isEmpty()) {
+                terms.put(new Hit(key.getDate(), key.getMensa(), cat.getTitle(), null), catTerms);
+            }
+            for (MensaMeal meal : cat.getMeals()) {
+                Set<String> t = terms(meal.getTitle(), true);
+                t.addAll(catTerms);
+                terms.put(new Hit(key.getDate(), key.getMensa(), cat.getTitle(), meal.getTitle()), t);
+            }
+        }
+        terms.forEach((hit, ts) -> {
+            for (String t : ts) {
+                postings.computeIfAbsent(t, x -> ConcurrentHashMap.newKeySet()).add(hit);
+            }
+        });
+        return new Indexed(categories, terms);
+    }
+
+    private void remove(Indexed doc) {
+        doc.getTerms().forEach((hit, ts) -> {
+            for (String t : ts) {
+                postings.computeIfPresent(t, (x, hits) -> {
+                    hits.remove(hit);
+                    return hits.isEmpty() ? null : hits;
+                });
+            }
+        });
+    }
+
+    /**
+     * Finds all meals that contain every word of the query.
+     *
+     * @param from hits before are ignored
+     * @param limit maximum number of hits
+     * @return the hits ordered by date and mensa
+     */
+    public List<Hit> search(String query, LocalDate from, int limit) {
+        Set<String> words = terms(query, false);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Set<Hit> smallest = null;
+        List<Set<Hit>> all = new ArrayList<>();
+        for (String w : words) {
+            Set<Hit> hits = postings.get(w);
+            if (hits == null) {
+                return Collections.emptyList();
+            }
+            all.add(hits);
+            if (smallest == null || hits.size() < smallest.size()) {
+                smallest = hits;
+            }
+        }
+
+        List<Hit> result = new ArrayList<>();
+        for (Hit h : smallest) {
+            if (!h.getDate().isBefore(from) && all.stream().allMatch(s -> s.contains(h))) {
+                result.add(h);
+            }
+        }
+        result.sort(Comparator.comparing(Hit::getDate).thenComparing(Hit::getMensa));
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    /**
+     * Splits the text into normalized words.
+     *
+     * @param indexing whether the text is indexed, which adds the endings of
+     * compound words and umlauts without the trailing e so that users
+     * typing "knodel" find it as well
+     */
+    static Set<String> terms(String text, boolean indexing) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        String lower = text.toLowerCase(Locale.GERMAN);
+        List<String> forms = indexing ? Arrays.asList(fold(lower), stripMarks(lower)) : Collections.singletonList(fold(lower));
+        for (String form : forms) {
+            for (String word : WORD_SPLIT.split(form)) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                terms.add(stem(word));
+                if (indexing) {
+                    for (int i = 1; word.length() - i >= MIN_PART; i++) {
+                        terms.add(stem(word.substring(i)));
+                    }
+                }
+            }
+        }
+        return terms;
+    }
+
+    static String fold(String text) {
+        return stripMarks(text.toLowerCase(Locale.GERMAN)
+            .replace("ä", "ae")
+            .replace("ö", "oe")
+            .replace("ü", "ue")
+            .replace("ß", "ss"));
+    }
+
+    private static String stripMarks(String text) {
+        return MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").replace("ß", "ss");
+    }
+
+    static String stem(String word) {
+        for (String suffix : SUFFIXES) {
+            if (word.endsWith(suffix) && word.length() - suffix.length() >= MIN_STEM) {
+                return word.substring(0, word.length() - suffix.length());
+            }
+        }
+        return word;
+    }
+
+    @Value
+    public static class Hit {
+        LocalDate date;
+        Mensa mensa;
+        String category;
+        /**
+         * The meal or null if the category has none.
+         */
+        String meal;
+    }
+
+    @Value
+    private static class Key {
+        LocalDate date;
+        Mensa mensa;
+    }
+
+    @Value
+    private static class Indexed {
+        List<? extends MensaCategory> categories;
+        Map<Hit, Set<String>> terms;
+    }
+}
@@ -0,0 +1,100 @@
+package jkumensa.bot.datahandling;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores the last successfully parsed page of every source in a single
+ * compressed file. The file is replaced atomically, so a crash while writing
+ * never leaves a broken snapshot behind.
+ */
+public class SnapshotStore {
+    private static final int VERSION = 1;
+
+    private final Path file;
+
+    public SnapshotStore(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @param pages by the name of their source
+     */
+    public void write(Map<String, ConditionalFetcher.Page> pages) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new GZIPOutputStream(os))) {
+                out.writeInt(VERSION);
+                out.writeInt(pages.size());
+                for (Map.Entry<String, ConditionalFetcher.Page> e : pages.entrySet()) {
+                    ConditionalFetcher.Page page = e.getValue();
+                    out.writeUTF(e.getKey());
+                    writeNullable(out, page.getEtag());
+                    writeNullable(out, page.getLastModified());
+                    writeNullable(out, page.getCharset());
+                    out.writeInt(page.getBody().length);
+                    out.write(page.getBody());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return the pages by the name of their source, empty if there is no
+     * snapshot
+     */
+    public Map<String, ConditionalFetcher.Page> read() throws IOException {
+        Map<String, ConditionalFetcher.Page> pages = new LinkedHashMap<>();
+        try (InputStream is = Files.newInputStream(file);
+            DataInputStream in = new DataInputStream(new GZIPInputStream(is))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String etag = readNullable(in);
+                String lastModified = readNullable(in);
+                String charset = readNullable(in);
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                pages.put(name, new ConditionalFetcher.Page(etag, lastModified, charset, body));
+            }
+        } catch (NoSuchFileException ex) {
+            //no snapshot yet
+        }
+        return pages;
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,41 @@
+package jkumensa.bot.http;
+
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the {@link CountingAsyncRunner} for the http servers as configured
+ * by {@code http.runner} which is either {@code default}, {@code bounded} or
+ * {@code virtual}.
+ */
+public class AsyncRunners {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncRunners.class);
+
+    private AsyncRunners() {
+    }
+
+    /**
+     * @return the runner or null if the default runner of NanoHTTPD should be
+     * kept
+     */
+    public static CountingAsyncRunner fromSettings(Properties p, String name) {
+        String type = p.getProperty("http.runner", "default");
+        switch (type) {
+            case "default":
+                return null;
+            case "bounded":
+                int threads = Integer.parseInt(p.getProperty("http.runner.threads", "16"));
+                int queue = Integer.parseInt(p.getProperty("http.runner.queue", "64"));
+                return new BoundedAsyncRunner(name, threads, queue);
+            case "virtual":
+                if (VirtualThreadAsyncRunner.isSupported()) {
+                    return new VirtualThreadAsyncRunner();
+                }
+                logger.warn("Virtual threads are not supported by this JVM, using default runner for {}", name);
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown http runner \"" + type + "\"");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package jkumensa.bot.http;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles the connections on a fixed number of threads. Connections that
+ * arrive while all threads are busy wait in a bounded queue; if that is full
+ * too, the connection is closed right away.
+ */
+public class BoundedAsyncRunner implements CountingAsyncRunner {
+    private static final Logger logger = LoggerFactory.getLogger(BoundedAsyncRunner.class);
+
+    private final ThreadPoolExecutor executor;
+    private final List<NanoHTTPD.ClientHandler> running = Collections.synchronizedList(new ArrayList<>());
+
+    public BoundedAsyncRunner(String name, int threads, int queueSize) {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+            threads, threads,
+            0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            r -> {
+                Thread t = new Thread(r);
+                t.setName(name + "-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        );
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler code) {
+        running.add(code);
+        try {
+            executor.execute(code);
+        } catch (RejectedExecutionException ex) {
+            logger.warn("Rejecting connection, {} connections already queued", executor.getQueue().size());
+            running.remove(code);
+            code.close();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler clientHandler) {
+        running.remove(clientHandler);
+    }
+
+    @Override
+    public void closeAll() {
+        for (NanoHTTPD.ClientHandler clientHandler : new ArrayList<>(running)) {
+            clientHandler.close();
+        }
+    }
+
+    @Override
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+}
@@ -0,0 +1,18 @@
+package jkumensa.bot.http;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * An {@link NanoHTTPD.AsyncRunner} that can tell how busy it is.
+ */
+public interface CountingAsyncRunner extends NanoHTTPD.AsyncRunner {
+    /**
+     * Number of connections currently being handled.
+     */
+    int getActiveCount();
+
+    /**
+     * Number of accepted connections waiting for a free thread.
+     */
+    int getQueuedCount();
+}
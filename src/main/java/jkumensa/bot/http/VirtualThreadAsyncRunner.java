@@ -0,0 +1,72 @@
+package jkumensa.bot.http;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles every connection on its own virtual thread. Virtual threads are
+ * looked up reflectively so that the bot still runs on older JVMs, just
+ * without this runner.
+ */
+public class VirtualThreadAsyncRunner implements CountingAsyncRunner {
+    private final ExecutorService executor;
+    private final AtomicInteger active = new AtomicInteger();
+    private final List<NanoHTTPD.ClientHandler> running = Collections.synchronizedList(new ArrayList<>());
+
+    public VirtualThreadAsyncRunner() {
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Virtual threads are not supported by this JVM", ex);
+        }
+    }
+
+    public static boolean isSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler code) {
+        running.add(code);
+        executor.execute(() -> {
+            active.incrementAndGet();
+            try {
+                code.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler clientHandler) {
+        running.remove(clientHandler);
+    }
+
+    @Override
+    public void closeAll() {
+        for (NanoHTTPD.ClientHandler clientHandler : new ArrayList<>(running)) {
+            clientHandler.close();
+        }
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return 0;
+    }
+}
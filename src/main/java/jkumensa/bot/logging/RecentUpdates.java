@@ -0,0 +1,57 @@
+package jkumensa.bot.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import lombok.Value;
+
+/**
+ * Fixed size ring of the last handled updates for looking at what the bot
+ * did recently without reading any log file. Recording is a single atomic
+ * increment and an array write. Chats are deliberately not recorded since
+ * the entries are served publicly.
+ */
+public class RecentUpdates {
+    public static final RecentUpdates GLOBAL = new RecentUpdates(256);
+
+    private final AtomicReferenceArray<Entry> ring;
+    private final AtomicLong next = new AtomicLong();
+
+    public RecentUpdates(int size) {
+        this.ring = new AtomicReferenceArray<>(size);
+    }
+
+    public void record(Entry e) {
+        long i = next.getAndIncrement();
+        ring.set((int) (i % ring.length()), e);
+    }
+
+    /**
+     * Returns the recorded updates, newest first.
+     */
+    public List<Entry> get() {
+        long end = next.get();
+        List<Entry> entries = new ArrayList<>(ring.length());
+        for (long i = end - 1; i >= 0 && i >= end - ring.length(); i--) {
+            Entry e = ring.get((int) (i % ring.length()));
+            if (e != null) {
+                entries.add(e);
+            }
+        }
+        return entries;
+    }
+
+    @Value
+    public static class Entry {
+        long time;
+        int updateId;
+        String type;
+        String name;
+        long durationMicros;
+        /**
+         * The exception class if handling failed, otherwise null.
+         */
+        String error;
+    }
+}
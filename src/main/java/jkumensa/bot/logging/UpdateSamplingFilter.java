@@ -0,0 +1,49 @@
+package jkumensa.bot.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+/**
+ * Keeps debug and trace output only for a sample of the telegram updates.
+ * The update being handled is taken from the {@value #MDC_KEY} entry of the
+ * MDC and whether it is sampled depends only on its id, so all lines of an
+ * update are either kept or dropped together. Lines outside of an update
+ * and info and above are never touched.
+ * <p>
+ * Since this runs before the event is created, dropped lines cost neither
+ * formatting nor allocation.
+ */
+public class UpdateSamplingFilter extends TurboFilter {
+    public static final String MDC_KEY = "update";
+
+    private volatile long threshold = 100;
+
+    /**
+     * @param rate share of the updates to keep, between 0 and 1
+     */
+    public void setRate(double rate) {
+        this.threshold = (long) (Math.max(0, Math.min(1, rate)) * 10000);
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (level.isGreaterOrEqual(Level.INFO)) {
+            return FilterReply.NEUTRAL;
+        }
+        String update = MDC.get(MDC_KEY);
+        if (update == null) {
+            return FilterReply.NEUTRAL;
+        }
+        return isSampled(update.hashCode(), threshold) ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    static boolean isSampled(int hash, long threshold) {
+        //spread the ids which are mostly consecutive
+        int h = hash * 0x9E3779B9;
+        return Integer.toUnsignedLong(h) % 10000 < threshold;
+    }
+}
@@ -0,0 +1,51 @@
+package jkumensa.bot.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A metric with labels, holding one child per combination of label values.
+ * Existing children are found without locking.
+ */
+public class Family<T> {
+    private final String name;
+    private final String help;
+    private final List<String> labelNames;
+    private final Supplier<T> factory;
+    private final ConcurrentHashMap<List<String>, T> children = new ConcurrentHashMap<>();
+
+    Family(String name, String help, Supplier<T> factory, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = Arrays.asList(labelNames);
+        this.factory = factory;
+    }
+
+    public T labels(String... values) {
+        if (values.length != labelNames.size()) {
+            throw new IllegalArgumentException(name + " needs labels " + labelNames);
+        }
+        List<String> key = Arrays.asList(values);
+        T child = children.get(key);
+        return child != null ? child : children.computeIfAbsent(key, k -> factory.get());
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getHelp() {
+        return help;
+    }
+
+    List<String> getLabelNames() {
+        return labelNames;
+    }
+
+    Map<List<String>, T> getChildren() {
+        return children;
+    }
+}
@@ -0,0 +1,169 @@
+package jkumensa.bot.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+/**
+ * All metrics of the bot and their rendering in the prometheus text format.
+ * Recording only touches striped counters; the values are summed up when
+ * they are scraped.
+ */
+public final class Metrics {
+    private static final List<Family<?>> FAMILIES = new CopyOnWriteArrayList<>();
+    private static final Map<String, Family<DoubleSupplier>> GAUGES = new ConcurrentHashMap<>();
+
+    public static final Family<Counter> UPDATES = counter(
+        "mensabot_updates_total", "Telegram updates by type and command or callback", "type", "name");
+    public static final Family<Counter> DUPLICATE_UPDATES = counter(
+        "mensabot_duplicate_updates_total", "Telegram updates dropped as already handled", "reason");
+    public static final Histogram UPDATE_DURATION = histogram(
+        "mensabot_update_duration_seconds", "Time to handle a telegram update", Histogram.LATENCY_BUCKETS).labels();
+    public static final Family<Histogram> TELEGRAM_DURATION = histogram(
+        "mensabot_telegram_request_duration_seconds", "Duration of calls to the telegram api", Histogram.LATENCY_BUCKETS, "method");
+    public static final Family<Counter> TELEGRAM_ERRORS = counter(
+        "mensabot_telegram_errors_total", "Failed calls to the telegram api", "method", "reason");
+    public static final Family<Histogram> SOURCE_FETCH_DURATION = histogram(
+        "mensabot_source_fetch_duration_seconds", "Duration of fetching a source including parsing", Histogram.FETCH_BUCKETS, "source");
+    public static final Family<Histogram> SOURCE_PARSE_DURATION = histogram(
+        "mensabot_source_parse_duration_seconds", "Duration of parsing a changed source", Histogram.FETCH_BUCKETS, "source");
+    public static final Family<Counter> SOURCE_ERRORS = counter(
+        "mensabot_source_errors_total", "Failed attempts to fetch a source", "source");
+    public static final Family<Counter> HTTP_REQUESTS = counter(
+        "mensabot_http_requests_total", "Requests to the api server by route and status", "route", "status");
+    public static final Family<Counter> BROADCAST_CHATS = counter(
+        "mensabot_broadcast_chats_total", "Subscribers sent their daily menu by result", "result");
+
+    static {
+        gauge("mensabot_http_not_modified_ratio", "Share of /get requests answered with 304", () -> {
+            long notModified = 0;
+            long total = 0;
+            for (Map.Entry<List<String>, Counter> e : HTTP_REQUESTS.getChildren().entrySet()) {
+                if (e.getKey().get(0).equals("/get")) {
+                    long n = e.getValue().get();
+                    total += n;
+                    if (e.getKey().get(1).equals("304")) {
+                        notModified += n;
+                    }
+                }
+            }
+            return total == 0 ? 0 : (double) notModified / total;
+        });
+    }
+
+    private Metrics() {
+    }
+
+    private static Family<Counter> counter(String name, String help, String... labelNames) {
+        return register(new Family<>(name, help, Counter::new, labelNames));
+    }
+
+    private static Family<Histogram> histogram(String name, String help, double[] bounds, String... labelNames) {
+        return register(new Family<>(name, help, () -> new Histogram(bounds), labelNames));
+    }
+
+    private static <T> Family<T> register(Family<T> family) {
+        FAMILIES.add(family);
+        return family;
+    }
+
+    /**
+     * Registers a value that is read on every scrape, replacing an earlier
+     * one with the same name and labels.
+     *
+     * @param labels alternating label names and values
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        String[] names = new String[labels.length / 2];
+        String[] values = new String[labels.length / 2];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = labels[2 * i];
+            values[i] = labels[2 * i + 1];
+        }
+        Family<DoubleSupplier> family = GAUGES.computeIfAbsent(name, n -> register(new Family<>(n, help, () -> null, names)));
+        family.getChildren().put(Arrays.asList(values), value);
+    }
+
+    /**
+     * Renders all metrics in the prometheus text format 0.0.4.
+     */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(8192);
+        for (Family<?> f : FAMILIES) {
+            if (f.getChildren().isEmpty()) {
+                continue;
+            }
+            Object any = f.getChildren().values().iterator().next();
+            String type = any instanceof Counter ? "counter" : any instanceof Histogram ? "histogram" : "gauge";
+            sb.append("# HELP ").append(f.getName()).append(' ').append(f.getHelp()).append('\n');
+            sb.append("# TYPE ").append(f.getName()).append(' ').append(type).append('\n');
+
+            for (Map.Entry<List<String>, ?> e : f.getChildren().entrySet()) {
+                Object child = e.getValue();
+                if (child instanceof Counter) {
+                    sample(sb, f.getName(), f.getLabelNames(), e.getKey(), null, ((Counter) child).get());
+                } else if (child instanceof Histogram) {
+                    Histogram h = (Histogram) child;
+                    long[] counts = h.getCounts();
+                    long cumulative = 0;
+                    for (int i = 0; i < counts.length; i++) {
+                        cumulative += counts[i];
+                        String le = i < h.getBounds().length ? Double.toString(h.getBounds()[i]) : "+Inf";
+                        sample(sb, f.getName() + "_bucket", f.getLabelNames(), e.getKey(), le, cumulative);
+                    }
+                    sample(sb, f.getName() + "_sum", f.getLabelNames(), e.getKey(), null, h.getSum());
+                    sample(sb, f.getName() + "_count", f.getLabelNames(), e.getKey(), null, cumulative);
+                } else {
+                    sample(sb, f.getName(), f.getLabelNames(), e.getKey(), null, ((DoubleSupplier) child).getAsDouble());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder sb, String name, List<String> labelNames, List<String> labelValues, String le, double value) {
+        sb.append(name);
+        if (!labelNames.isEmpty() || le != null) {
+            sb.append('{');
+            for (int i = 0; i < labelNames.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(labelNames.get(i)).append("=\"");
+                escape(sb, labelValues.get(i));
+                sb.append('"');
+            }
+            if (le != null) {
+                sb.append(labelNames.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+            }
+            sb.append('}');
+        }
+        sb.append(' ');
+        if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == (long) value) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
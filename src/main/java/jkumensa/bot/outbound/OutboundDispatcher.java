@@ -0,0 +1,268 @@
+package jkumensa.bot.outbound;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jkumensa.bot.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.api.methods.AnswerInlineQuery;
+import org.telegram.telegrambots.api.methods.BotApiMethod;
+import org.telegram.telegrambots.api.methods.send.SendMessage;
+import org.telegram.telegrambots.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.exceptions.TelegramApiException;
+import org.telegram.telegrambots.exceptions.TelegramApiRequestException;
+
+/**
+ * Sends the api calls of the bot asynchronously so that the update handling
+ * never waits on telegram. Calls to the same chat are sent in order and the
+ * global and per chat limits of telegram are kept by token buckets. If
+ * telegram still answers with 429, the chat is paused for the requested time
+ * and the call is retried.
+ */
+public class OutboundDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundDispatcher.class);
+    private static final int MAX_RETRIES = 3;
+    private static final long CLEANUP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private final int threads;
+    private final int maxBacklog;
+    private final double chatRate;
+    private final double chatBurst;
+    private final TokenBucket globalBucket;
+
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final ConcurrentHashMap<String, ChatQueue> chats = new ConcurrentHashMap<>();
+    private final DelayQueue<ChatQueue> ready = new DelayQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile long lastCleanup = System.nanoTime();
+
+    private DefaultAbsSender sender;
+
+    public OutboundDispatcher(Properties p) {
+        threads = Integer.parseInt(p.getProperty("bot.sender.threads", "4"));
+        maxBacklog = Integer.parseInt(p.getProperty("bot.sender.backlog", "10000"));
+        chatRate = Double.parseDouble(p.getProperty("bot.sender.chatRate", "1"));
+        chatBurst = Double.parseDouble(p.getProperty("bot.sender.chatBurst", "1"));
+        double globalRate = Double.parseDouble(p.getProperty("bot.sender.globalRate", "30"));
+        globalBucket = new TokenBucket(globalRate, globalRate);
+        Metrics.gauge("mensabot_outbound_backlog", "Calls waiting to be sent to telegram", backlog::get);
+    }
+
+    public synchronized void start(DefaultAbsSender sender) {
+        if (!workers.isEmpty()) {
+            throw new IllegalStateException("Dispatcher already running!");
+        }
+        this.sender = sender;
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::work);
+            t.setName("OutboundSender-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    public synchronized void stop() {
+        workers.forEach(Thread::interrupt);
+        workers.clear();
+        if (backlog.get() > 0) {
+            logger.warn("Stopped outbound dispatcher with {} unsent calls", backlog.get());
+        }
+    }
+
+    /**
+     * Queues the call for sending.
+     *
+     * @return the future of the telegram response; it fails right away if
+     * the backlog is full
+     */
+    public <T extends Serializable, Method extends BotApiMethod<T>> CompletableFuture<T> send(Method method) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (backlog.incrementAndGet() > maxBacklog) {
+            backlog.decrementAndGet();
+            logger.warn("Outbound backlog full ({}), dropping {}", maxBacklog, method.getMethod());
+            future.completeExceptionally(new RejectedExecutionException("Outbound backlog full"));
+            return future;
+        }
+
+        chats.compute(chatKey(method), (key, q) -> {
+            if (q == null) {
+                q = new ChatQueue(key, new TokenBucket(chatBurst, chatRate));
+            }
+            synchronized (q) {
+                q.tasks.add(new Task<>(method, future));
+                if (!q.scheduled) {
+                    long now = System.nanoTime();
+                    q.scheduled = true;
+                    if (q.readyAt - now < 0) {
+                        q.readyAt = now;
+                    }
+                    ready.add(q);
+                }
+            }
+            return q;
+        });
+        return future;
+    }
+
+    public int getBacklog() {
+        return backlog.get();
+    }
+
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                ChatQueue q = ready.poll(1, TimeUnit.SECONDS);
+                if (q == null || System.nanoTime() - lastCleanup > CLEANUP_INTERVAL) {
+                    cleanup();
+                }
+                if (q != null) {
+                    process(q);
+                }
+            }
+        } catch (InterruptedException ex) {
+            //shutdown
+        }
+    }
+
+    private void process(ChatQueue q) throws InterruptedException {
+        long wait = q.bucket.tryAcquire();
+        if (wait > 0) {
+            reschedule(q, wait);
+            return;
+        }
+        while ((wait = globalBucket.tryAcquire()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        Task<?> task;
+        synchronized (q) {
+            task = q.tasks.peek();
+        }
+
+        long delay = 0;
+        try {
+            task.execute(sender);
+            complete(q);
+        } catch (TelegramApiRequestException ex) {
+            Integer retryAfter = ex.getParameters() == null ? null : ex.getParameters().getRetryAfter();
+            Metrics.TELEGRAM_ERRORS.labels(task.method.getMethod(), retryAfter != null ? "rate_limited" : "api").inc();
+            if (retryAfter != null && task.retries++ < MAX_RETRIES) {
+                logger.warn("Rate limited by telegram for chat {}, retrying in {}s", q.key, retryAfter);
+                delay = TimeUnit.SECONDS.toNanos(retryAfter);
+            } else {
+                logger.error("Unable to send {} to chat {}", task.method.getMethod(), q.key, ex);
+                task.future.completeExceptionally(ex);
+                complete(q);
+            }
+        } catch (Exception ex) {
+            Metrics.TELEGRAM_ERRORS.labels(task.method.getMethod(), "other").inc();
+            logger.error("Unable to send {} to chat {}", task.method.getMethod(), q.key, ex);
+            task.future.completeExceptionally(ex);
+            complete(q);
+        }
+        reschedule(q, delay);
+    }
+
+    private void complete(ChatQueue q) {
+        synchronized (q) {
+            q.tasks.poll();
+        }
+        backlog.decrementAndGet();
+    }
+
+    private void reschedule(ChatQueue q, long delay) {
+        synchronized (q) {
+            if (q.tasks.isEmpty()) {
+                q.scheduled = false;
+            } else {
+                q.readyAt = System.nanoTime() + delay;
+                ready.add(q);
+            }
+        }
+    }
+
+    /**
+     * Removes the queues of chats that have nothing to send and whose bucket
+     * has refilled, so the map does not grow with every chat ever seen.
+     */
+    private void cleanup() {
+        lastCleanup = System.nanoTime();
+        for (String key : chats.keySet()) {
+            chats.computeIfPresent(key, (k, q) -> {
+                synchronized (q) {
+                    return !q.scheduled && q.tasks.isEmpty() && q.bucket.isFull() ? null : q;
+                }
+            });
+        }
+    }
+
+    private static String chatKey(BotApiMethod<?> method) {
+        String key = null;
+        if (method instanceof SendMessage) {
+            key = ((SendMessage) method).getChatId();
+        } else if (method instanceof EditMessageText) {
+            EditMessageText e = (EditMessageText) method;
+            key = e.getChatId() != null ? e.getChatId() : e.getInlineMessageId();
+        } else if (method instanceof AnswerInlineQuery) {
+            //not bound to a chat, only the global limit applies
+            key = "inline:" + ((AnswerInlineQuery) method).getInlineQueryId();
+        }
+        return key == null ? "" : key;
+    }
+
+    private static class ChatQueue implements Delayed {
+        private final String key;
+        private final TokenBucket bucket;
+        private final ArrayDeque<Task<?>> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+        private volatile long readyAt;
+
+        ChatQueue(String key, TokenBucket bucket) {
+            this.key = key;
+            this.bucket = bucket;
+            this.readyAt = System.nanoTime();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.signum(readyAt - ((ChatQueue) o).readyAt);
+        }
+    }
+
+    private static class Task<T extends Serializable> {
+        private final BotApiMethod<T> method;
+        private final CompletableFuture<T> future;
+        private int retries;
+
+        Task(BotApiMethod<T> method, CompletableFuture<T> future) {
+            this.method = method;
+            this.future = future;
+        }
+
+        void execute(DefaultAbsSender sender) throws TelegramApiException {
+            long start = System.nanoTime();
+            try {
+                future.complete(sender.execute(method));
+            } finally {
+                Metrics.TELEGRAM_DURATION.labels(method.getMethod()).observeSince(start);
+            }
+        }
+    }
+}
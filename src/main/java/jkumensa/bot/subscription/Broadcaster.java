@@ -0,0 +1,243 @@
+package jkumensa.bot.subscription;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import jkumensa.api.Mensa;
+import jkumensa.bot.datahandling.MenuChanges;
+import jkumensa.bot.datahandling.MenuIndex;
+import jkumensa.bot.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.api.methods.send.SendMessage;
+import org.telegram.telegrambots.exceptions.TelegramApiRequestException;
+
+/**
+ * Sends the menu of the day to every subscriber whose time has come. The
+ * messages go through the outbound dispatcher, which paces them to the
+ * global limit of telegram; only a window of chats is handed over at once so
+ * that its backlog is never filled by a broadcast.
+ */
+public class Broadcaster {
+    private static final Logger logger = LoggerFactory.getLogger(Broadcaster.class);
+    /**
+     * Completed chats between two progress reports and saves of the store.
+     */
+    private static final int PROGRESS_INTERVAL = 1000;
+    static final String CHANGE_NOTICE = "The menu of today has changed:";
+
+    private final SubscriptionStore store;
+    private final BiFunction<Mensa, LocalDate, List<String>> menus;
+    private final Function<SendMessage, CompletableFuture<?>> sender;
+    private final int window;
+    private final AtomicInteger pending = new AtomicInteger();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param menus the rendered messages of a menu or null if there is none
+     * @param window maximum number of chats being sent to at the same time
+     */
+    public Broadcaster(SubscriptionStore store, BiFunction<Mensa, LocalDate, List<String>> menus,
+        Function<SendMessage, CompletableFuture<?>> sender, int window) {
+        this.store = store;
+        this.menus = menus;
+        this.sender = sender;
+        this.window = window;
+        Metrics.gauge("mensabot_subscriptions", "Chats subscribed to a daily menu", store::size);
+        Metrics.gauge("mensabot_broadcast_pending", "Subscribers still waiting for the current broadcast", pending::get);
+    }
+
+    /**
+     * Checks for due subscribers at the start of every minute.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            throw new IllegalStateException("Broadcaster already running!");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("Broadcaster");
+            t.setDaemon(true);
+            return t;
+        });
+        ZonedDateTime now = ZonedDateTime.now(MenuIndex.ZONE);
+        long delay = ChronoUnit.MILLIS.between(now, now.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1));
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                broadcast(ZonedDateTime.now(MenuIndex.ZONE));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                logger.error("Broadcast failed", ex);
+            }
+        }, delay, TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Sends the menu of the day to all subscribers that are due at the given
+     * time and did not get it yet. Returns once every message is sent.
+     */
+    public void broadcast(ZonedDateTime now) throws IOException, InterruptedException {
+        LocalDate day = now.toLocalDate();
+        LocalTime time = now.toLocalTime();
+        List<SubscriptionStore.Subscription> due = store.getAll().stream()
+            .filter(s -> s.getLastSent() < day.toEpochDay() && !s.getTime().isAfter(time))
+            .collect(Collectors.toList());
+        if (due.isEmpty()) {
+            return;
+        }
+
+        logger.info("Broadcasting the menus of {} to {} subscribers", day, due.size());
+        deliver(due, day, null);
+    }
+
+    /**
+     * Sends the new menu of the day to the subscribers that already got it
+     * if their mensa changed.
+     */
+    public void notifyChanges(MenuChanges changes) {
+        ScheduledExecutorService e;
+        synchronized (this) {
+            e = executor;
+        }
+        if (e == null) {
+            return;
+        }
+        e.execute(() -> {
+            try {
+                sendChanges(changes, LocalDate.now(MenuIndex.ZONE));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                logger.error("Sending changed menus failed", ex);
+            }
+        });
+    }
+
+    void sendChanges(MenuChanges changes, LocalDate day) throws IOException, InterruptedException {
+        Map<Mensa, MenuChanges.Change> changed = changes.get(day);
+        List<SubscriptionStore.Subscription> affected = store.getAll().stream()
+            .filter(s -> s.getLastSent() >= day.toEpochDay())
+            .filter(s -> changed.containsKey(s.getMensa()) && changed.get(s.getMensa()) != MenuChanges.Change.REMOVED)
+            .collect(Collectors.toList());
+        if (affected.isEmpty()) {
+            return;
+        }
+        logger.info("Menus of {} changed, notifying {} subscribers", changed.keySet(), affected.size());
+        deliver(affected, day, CHANGE_NOTICE);
+    }
+
+    /**
+     * @param notice sent before the menu if not null
+     */
+    private void deliver(List<SubscriptionStore.Subscription> subscribers, LocalDate day, String notice)
+        throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        pending.set(subscribers.size());
+        Semaphore inFlight = new Semaphore(window);
+        List<Long> done = new ArrayList<>();
+        AtomicInteger failed = new AtomicInteger();
+        int handedOver = 0;
+
+        for (SubscriptionStore.Subscription s : subscribers) {
+            List<String> messages = menus.apply(s.getMensa(), day);
+            if (messages == null || messages.isEmpty()) {
+                //nothing served today, do not check again until tomorrow
+                complete(done, s.getChatId());
+                continue;
+            }
+            if (notice != null) {
+                List<String> withNotice = new ArrayList<>(messages.size() + 1);
+                withNotice.add(notice);
+                withNotice.addAll(messages);
+                messages = withNotice;
+            }
+            inFlight.acquire();
+            CompletableFuture<?> last = null;
+            for (String text : messages) {
+                //the messages of a chat are sent in order, so the last one completes after all others
+                last = sender.apply(new SendMessage()
+                    .setChatId(s.getChatId())
+                    .setParseMode("Markdown")
+                    .disableWebPagePreview()
+                    .setText(text));
+            }
+            last.whenComplete((r, ex) -> {
+                if (ex == null) {
+                    Metrics.BROADCAST_CHATS.labels("sent").inc();
+                } else {
+                    Metrics.BROADCAST_CHATS.labels("failed").inc();
+                    failed.incrementAndGet();
+                    if (ex instanceof TelegramApiRequestException
+                        && Integer.valueOf(403).equals(((TelegramApiRequestException) ex).getErrorCode())) {
+                        unsubscribeBlocked(s.getChatId());
+                    }
+                }
+                //failed chats are not retried either, the dispatcher already did
+                complete(done, s.getChatId());
+                inFlight.release();
+            });
+
+            if (++handedOver % PROGRESS_INTERVAL == 0) {
+                logger.info("Broadcast progress: {} of {} handed over, {} pending, {} failed",
+                    handedOver, subscribers.size(), pending.get(), failed.get());
+                store.markSent(drain(done), day);
+            }
+        }
+
+        inFlight.acquire(window);
+        inFlight.release(window);
+        store.markSent(drain(done), day);
+        logger.info("Broadcast to {} subscribers finished in {}ms, {} failed",
+            subscribers.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failed.get());
+    }
+
+    private void complete(List<Long> done, long chatId) {
+        synchronized (done) {
+            done.add(chatId);
+        }
+        pending.decrementAndGet();
+    }
+
+    private static List<Long> drain(List<Long> done) {
+        synchronized (done) {
+            List<Long> copy = new ArrayList<>(done);
+            done.clear();
+            return copy;
+        }
+    }
+
+    /**
+     * The user blocked the bot or left the group, so there is no point in
+     * trying again tomorrow.
+     */
+    private void unsubscribeBlocked(long chatId) {
+        try {
+            store.remove(chatId);
+            logger.info("Removed subscription of chat {} which blocked the bot", chatId);
+        } catch (IOException ex) {
+            logger.error("Unable to remove subscription of chat {}", chatId, ex);
+        }
+    }
+}
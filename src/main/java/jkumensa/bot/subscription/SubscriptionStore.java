@@ -0,0 +1,153 @@
+package jkumensa.bot.subscription;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import jkumensa.api.Mensa;
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the subscriptions in memory and in a small binary file with about
+ * 20 bytes per chat. The file is rewritten and replaced atomically on every
+ * change, which is cheap for the few thousand chats we have.
+ */
+public class SubscriptionStore {
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionStore.class);
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final ConcurrentHashMap<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * @param file null to keep the subscriptions only in memory
+     */
+    public SubscriptionStore(Path file) throws IOException {
+        this.file = file;
+        if (file != null) {
+            read();
+        }
+    }
+
+    public Collection<Subscription> getAll() {
+        return new ArrayList<>(subscriptions.values());
+    }
+
+    public Subscription get(long chatId) {
+        return subscriptions.get(chatId);
+    }
+
+    public int size() {
+        return subscriptions.size();
+    }
+
+    public void put(Subscription s) throws IOException {
+        subscriptions.put(s.getChatId(), s);
+        write();
+    }
+
+    /**
+     * @return whether the chat was subscribed
+     */
+    public boolean remove(long chatId) throws IOException {
+        if (subscriptions.remove(chatId) == null) {
+            return false;
+        }
+        write();
+        return true;
+    }
+
+    /**
+     * Remembers that the chats got the menu of the day so that they are not
+     * sent it again, even after a restart.
+     */
+    public void markSent(Collection<Long> chatIds, LocalDate day) throws IOException {
+        long epochDay = day.toEpochDay();
+        for (Long chatId : chatIds) {
+            subscriptions.computeIfPresent(chatId, (k, s) -> s.withLastSent(Math.max(s.getLastSent(), epochDay)));
+        }
+        write();
+    }
+
+    private synchronized void write() throws IOException {
+        if (file == null) {
+            return;
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            List<Subscription> all = new ArrayList<>(subscriptions.values());
+            try (OutputStream os = Files.newOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                out.writeInt(VERSION);
+                out.writeInt(all.size());
+                for (Subscription s : all) {
+                    out.writeLong(s.getChatId());
+                    out.writeUTF(s.getMensa().name());
+                    out.writeShort(s.getTime().getHour() * 60 + s.getTime().getMinute());
+                    out.writeInt((int) s.getLastSent());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void read() throws IOException {
+        try (InputStream is = Files.newInputStream(file);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported subscription file version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long chatId = in.readLong();
+                String mensa = in.readUTF();
+                int minute = in.readShort();
+                long lastSent = in.readInt();
+                try {
+                    subscriptions.put(chatId, new Subscription(
+                        chatId, Mensa.valueOf(mensa), LocalTime.of(minute / 60, minute % 60), lastSent
+                    ));
+                } catch (IllegalArgumentException ex) {
+                    logger.warn("Dropping subscription of chat {} to unknown mensa {}", chatId, mensa);
+                }
+            }
+            logger.info("Loaded {} subscriptions", count);
+        } catch (NoSuchFileException ex) {
+            //nobody subscribed yet
+        }
+    }
+
+    @Value
+    public static class Subscription {
+        long chatId;
+        Mensa mensa;
+        LocalTime time;
+        /**
+         * Epoch day of the last menu sent.
+         */
+        long lastSent;
+
+        public Subscription withLastSent(long lastSent) {
+            return new Subscription(chatId, mensa, time, lastSent);
+        }
+    }
+}
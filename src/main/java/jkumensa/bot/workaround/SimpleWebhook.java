@@ -1,10 +1,23 @@
 package jkumensa.bot.workaround;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import lombok.SneakyThrows;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.api.methods.BotApiMethod;
 import org.telegram.telegrambots.api.objects.Update;
 import org.telegram.telegrambots.exceptions.TelegramApiRequestException;
@@ -17,8 +30,24 @@ import org.telegram.telegrambots.generics.WebhookBot;
  * telegram requests and forwarding it to the webhook bot.
  */
 public class SimpleWebhook extends NanoHTTPD implements Webhook {
+    private static final Logger logger = LoggerFactory.getLogger(SimpleWebhook.class);
+
+    /**
+     * Updates are a few kilobytes at most, anything larger is refused.
+     */
+    private static final int MAX_BODY = 1024 * 1024;
+    /**
+     * NanoHTTPD sends the response on the thread that called serve before it
+     * reads the next request, so the buffer can be reused per thread.
+     */
+    private static final ThreadLocal<ResponseBuffer> RESPONSE_BUFFER = ThreadLocal.withInitial(ResponseBuffer::new);
+
     private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectReader updateReader = mapper.readerFor(Update.class);
+    private final ObjectWriter writer = mapper.writer();
     private WebhookBot bot;
+    private Consumer<Update> asyncHandler;
+    private ThreadPoolExecutor asyncExecutor;
 
     public SimpleWebhook(int port) {
         super(port);
@@ -39,6 +68,36 @@ public class SimpleWebhook extends NanoHTTPD implements Webhook {
 
     public void stopServer() {
         stop();
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Answers every update right away with an empty response and processes
+     * it afterwards on a bounded pool. If the queue is full, the update is
+     * refused so that telegram delivers it again later.
+     *
+     * @param handler processes the update and sends the answers on its own
+     */
+    public void setAsyncProcessing(Consumer<Update> handler, int workers, int queueSize) {
+        AtomicInteger counter = new AtomicInteger();
+        this.asyncExecutor = new ThreadPoolExecutor(
+            workers, workers,
+            0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            r -> {
+                Thread t = new Thread(r);
+                t.setName("WebhookWorker-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        );
+        this.asyncHandler = handler;
+    }
+
+    public int getQueueDepth() {
+        return asyncExecutor == null ? 0 : asyncExecutor.getQueue().size();
     }
 
     @Override
@@ -51,29 +110,110 @@ public class SimpleWebhook extends NanoHTTPD implements Webhook {
     public Response serve(IHTTPSession session) {
 
         if (session.getMethod() == Method.POST) {
-            HashMap<String, String> files = new HashMap<>();
-            session.parseBody(files);
-            String postBody = files.get("postData");
+            String lengthHeader = session.getHeaders().get("content-length");
+            if (lengthHeader == null) {
+                return refuse(Response.Status.LENGTH_REQUIRED);
+            }
+            int length;
+            try {
+                length = Integer.parseInt(lengthHeader.trim());
+            } catch (NumberFormatException ex) {
+                return refuse(Response.Status.BAD_REQUEST);
+            }
+            if (length < 0 || length > MAX_BODY) {
+                return refuse(Response.Status.PAYLOAD_TOO_LARGE);
+            }
 
-            Update update = mapper.readValue(postBody, Update.class);
+            byte[] body;
+            try {
+                body = readBody(session.getInputStream(), length);
+            } catch (EOFException ex) {
+                logger.warn("Refusing update: {}", ex.getMessage());
+                return refuse(Response.Status.BAD_REQUEST);
+            }
+            Update update = updateReader.readValue(body);
+
+            if (asyncHandler != null) {
+                return serveAsync(update);
+            }
 
             BotApiMethod responseMethod = bot.onWebhookUpdateReceived(update);
 
-            String responseString;
-            if (responseMethod != null) {
-                responseMethod.validate();
-                responseString = mapper.writeValueAsString(responseMethod);
-            } else {
-                responseString = "";
+            if (responseMethod == null) {
+                return newFixedLengthResponse(Response.Status.OK, "application/json", "");
             }
-
-            return newFixedLengthResponse(Response.Status.OK, "application/json", responseString);
+            responseMethod.validate();
+            ResponseBuffer out = RESPONSE_BUFFER.get();
+            out.reset();
+            writer.writeValue(out, responseMethod);
+            return newFixedLengthResponse(Response.Status.OK, "application/json", out.toInputStream(), out.size());
         } else {
             return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "text/plain", "500");
         }
 
     }
 
+    /**
+     * Answers without reading the body, so the connection is closed instead
+     * of parsing the rest of the body as the next request.
+     */
+    private static Response refuse(Response.Status status) {
+        Response r = newFixedLengthResponse(status, "text/plain", String.valueOf(status.getRequestStatus()));
+        r.closeConnection(true);
+        return r;
+    }
+
+    /**
+     * Reads exactly the body, so neither a temporary file nor a string is
+     * created for it. The array is not kept per thread since a single large
+     * body would then stay allocated on every pooled thread, and with a
+     * thread per connection there would be nothing to reuse.
+     */
+    private static byte[] readBody(InputStream in, int length) throws IOException {
+        byte[] buf = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buf, read, length - read);
+            if (n == -1) {
+                throw new EOFException("Body ended after " + read + " of " + length + " bytes");
+            }
+            read += n;
+        }
+        return buf;
+    }
+
+    private Response serveAsync(Update update) {
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    asyncHandler.accept(update);
+                } catch (Exception ex) {
+                    logger.error("Unable to process update {}", update.getUpdateId(), ex);
+                }
+            });
+            return newFixedLengthResponse(Response.Status.OK, "application/json", "");
+        } catch (RejectedExecutionException ex) {
+            int depth = getQueueDepth();
+            logger.warn("Shedding update {}, queue is full with {} updates", update.getUpdateId(), depth);
+            Response r = newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, "text/plain", "503");
+            r.addHeader("X-Queue-Depth", String.valueOf(depth));
+            return r;
+        }
+    }
+
+    /**
+     * Hands out its content as stream without copying it.
+     */
+    private static class ResponseBuffer extends ByteArrayOutputStream {
+        ResponseBuffer() {
+            super(1024);
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
     @Override
     public void setInternalUrl(String internalUrl) {
         throw new UnsupportedOperationException("Not supported");
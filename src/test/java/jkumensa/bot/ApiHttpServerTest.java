@@ -0,0 +1,190 @@
+package jkumensa.bot;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import jkumensa.api.Mensa;
+import jkumensa.bot.datahandling.DataProvider;
+import jkumensa.bot.datahandling.MensaSource;
+import jkumensa.bot.datahandling.MenuIndex;
+import jkumensa.parser.MensaDay;
+import org.jsoup.nodes.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static jkumensa.bot.TestMenus.category;
+import static jkumensa.bot.TestMenus.day;
+import static jkumensa.bot.TestMenus.meal;
+
+public class ApiHttpServerTest {
+    private UpstreamServer upstream;
+    private DataProvider dataProvider;
+    private ApiHttpServer api;
+    private LocalDate relevantDay;
+
+    @Before
+    public void start() throws Exception {
+        upstream = new UpstreamServer();
+        upstream.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+
+        Properties p = new Properties();
+        p.setProperty("data.snapshot", "");
+        p.setProperty("data.archive", "");
+        dataProvider = new DataProvider(p, Arrays.asList(new FixedSource(upstream.url())));
+        relevantDay = dataProvider.getRelevantDay();
+        dataProvider.update();
+        api = new ApiHttpServer(0, dataProvider);
+        api.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+    }
+
+    @After
+    public void stop() {
+        api.stop();
+        dataProvider.stop();
+        upstream.stop();
+    }
+
+    @Test
+    public void servesTheDaySlices() throws Exception {
+        Assert.assertEquals(200, get("/get").getResponseCode());
+        Assert.assertEquals(200, get("/get/classic").getResponseCode());
+        Assert.assertEquals(200, get("/get/CHOICE").getResponseCode());
+        Assert.assertEquals(200, get("/get/classic/" + relevantDay.plusDays(1)).getResponseCode());
+    }
+
+    @Test
+    public void rejectsUnknownSlices() throws Exception {
+        Assert.assertEquals("no menu of the mensa that day", 404, get("/get/raab").getResponseCode());
+        Assert.assertEquals(404, get("/get/choice/" + relevantDay.plusDays(1)).getResponseCode());
+        Assert.assertEquals(404, get("/get/nomensa").getResponseCode());
+        Assert.assertEquals(404, get("/get/classic/2000-01-01").getResponseCode());
+        Assert.assertEquals(404, get("/get/classic/tomorrow").getResponseCode());
+        Assert.assertEquals(404, get("/get/classic/" + relevantDay + "/more").getResponseCode());
+    }
+
+    @Test
+    public void relevantDayExpiresWithTheDayChange() throws Exception {
+        for (String path : Arrays.asList("/get", "/get/classic")) {
+            HttpURLConnection c = get(path);
+            Assert.assertEquals(200, c.getResponseCode());
+            Duration untilDayChange = Duration.between(ZonedDateTime.now(MenuIndex.ZONE),
+                DataProvider.getNextDayChange(ZonedDateTime.now(MenuIndex.ZONE)));
+            Assert.assertTrue(path, maxAge(c) <= untilDayChange.getSeconds() + 1);
+        }
+    }
+
+    @Test
+    public void negotiatesGzip() throws Exception {
+        HttpURLConnection identity = get("/get/classic");
+        Assert.assertEquals(200, identity.getResponseCode());
+        Assert.assertNull(identity.getHeaderField("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", identity.getHeaderField("Vary"));
+
+        HttpURLConnection gzip = get("/get/classic", "Accept-Encoding", "deflate, gzip");
+        Assert.assertEquals(200, gzip.getResponseCode());
+        Assert.assertEquals("gzip", gzip.getHeaderField("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", gzip.getHeaderField("Vary"));
+        Assert.assertNotEquals(identity.getHeaderField("Etag"), gzip.getHeaderField("Etag"));
+
+        HttpURLConnection refused = get("/get/classic", "Accept-Encoding", "gzip;q=0");
+        Assert.assertNull(refused.getHeaderField("Content-Encoding"));
+        Assert.assertEquals(identity.getHeaderField("Etag"), refused.getHeaderField("Etag"));
+    }
+
+    @Test
+    public void validatesEachRepresentation() throws Exception {
+        String path = "/get/classic/" + relevantDay.plusDays(1);
+        String identity = get(path).getHeaderField("Etag");
+        String gzip = get(path, "Accept-Encoding", "gzip").getHeaderField("Etag");
+
+        Assert.assertEquals(304, get(path, "If-None-Match", identity).getResponseCode());
+        Assert.assertEquals(200, get(path, "If-None-Match", gzip).getResponseCode());
+
+        HttpURLConnection notModified = get(path, "If-None-Match", gzip);
+        notModified.setRequestProperty("Accept-Encoding", "gzip");
+        Assert.assertEquals(304, notModified.getResponseCode());
+        Assert.assertEquals(gzip, notModified.getHeaderField("Etag"));
+        Assert.assertEquals("Accept-Encoding", notModified.getHeaderField("Vary"));
+
+        HttpURLConnection other = get(path, "If-None-Match", identity);
+        other.setRequestProperty("Accept-Encoding", "gzip");
+        Assert.assertEquals(200, other.getResponseCode());
+    }
+
+    private HttpURLConnection get(String path, String header, String value) throws Exception {
+        HttpURLConnection c = get(path);
+        c.setRequestProperty(header, value);
+        return c;
+    }
+
+    private HttpURLConnection get(String path) throws Exception {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + api.getListeningPort() + path).openConnection();
+    }
+
+    private static long maxAge(HttpURLConnection c) {
+        return Long.parseLong(c.getHeaderField("Cache-Control").replaceAll(".*max-age=", ""));
+    }
+
+    /**
+     * Has the classic on the relevant day and the day after and the choice on
+     * the relevant day only.
+     */
+    private class FixedSource implements MensaSource {
+        private final String url;
+
+        FixedSource(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return "Fixed";
+        }
+
+        @Override
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public List<Mensa> getMensas() {
+            return Arrays.asList(Mensa.CLASSIC, Mensa.CHOICE);
+        }
+
+        @Override
+        public Map<Mensa, List<? extends MensaDay>> parse(Document doc) {
+            Map<Mensa, List<? extends MensaDay>> days = new EnumMap<>(Mensa.class);
+            days.put(Mensa.CLASSIC, Arrays.asList(
+                day(relevantDay, category("Classic 1", meal("Soup"))),
+                day(relevantDay.plusDays(1), category("Classic 1", meal("Stew")))
+            ));
+            days.put(Mensa.CHOICE, Arrays.asList(day(relevantDay, category("Choice", meal("Salad")))));
+            return days;
+        }
+    }
+
+    private static class UpstreamServer extends NanoHTTPD {
+        UpstreamServer() {
+            super("127.0.0.1", 0);
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + getListeningPort() + "/menu";
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            return newFixedLengthResponse(Response.Status.OK, "text/html; charset=utf-8", "<p>menu</p>");
+        }
+    }
+}
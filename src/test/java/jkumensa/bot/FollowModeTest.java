@@ -0,0 +1,170 @@
+package jkumensa.bot;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import jkumensa.api.Mensa;
+import jkumensa.bot.datahandling.DataProvider;
+import jkumensa.bot.datahandling.MensaSource;
+import jkumensa.bot.datahandling.MenuIndex;
+import jkumensa.parser.MensaDay;
+import org.jsoup.nodes.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FollowModeTest {
+    private UpstreamServer upstream;
+    private DataProvider leader;
+    private DataProvider follower;
+    private ApiHttpServer api;
+
+    @Before
+    public void start() throws Exception {
+        upstream = new UpstreamServer();
+        upstream.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+    }
+
+    @After
+    public void stop() {
+        if (api != null) {
+            api.stop();
+        }
+        if (follower != null) {
+            follower.stop();
+        }
+        if (leader != null) {
+            leader.stop();
+        }
+        upstream.stop();
+    }
+
+    @Test
+    public void followerCopiesThePagesOfTheLeader() throws Exception {
+        upstream.body = "<ul><li>1</li></ul>";
+        PageSource leaderSource = new PageSource(upstream.url());
+        leader = new DataProvider(settings(), Collections.singletonList(leaderSource));
+        leader.update();
+        api = new ApiHttpServer(0, leader);
+        api.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+
+        Properties p = settings();
+        p.setProperty("data.mode", "follow");
+        p.setProperty("data.leader", "http://127.0.0.1:" + api.getListeningPort() + "/");
+        PageSource followerSource = new PageSource(upstream.url());
+        follower = new DataProvider(p, Collections.singletonList(followerSource));
+
+        follower.update();
+        Assert.assertEquals(leader.getMenuIndex().getDates(), follower.getMenuIndex().getDates());
+        Assert.assertEquals("links resolve against the original page", upstream.url(), followerSource.location);
+        Assert.assertEquals(1, upstream.requests.get());
+
+        follower.update();
+        Assert.assertEquals("unchanged pages are not parsed again", 1, followerSource.parsed.get());
+
+        upstream.body = "<ul><li>1</li><li>2</li></ul>";
+        leader.update();
+        follower.update();
+        Assert.assertEquals(2, follower.getMenuIndex().getDates().size());
+        Assert.assertEquals(2, upstream.requests.get());
+    }
+
+    @Test
+    public void notModifiedKeepsTheCacheHeaders() throws Exception {
+        upstream.body = "<ul><li>1</li></ul>";
+        leader = new DataProvider(settings(), Collections.singletonList(new PageSource(upstream.url())));
+        leader.update();
+        api = new ApiHttpServer(0, leader);
+        api.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+
+        URL url = new URL("http://127.0.0.1:" + api.getListeningPort() + "/source/fixture");
+        HttpURLConnection first = (HttpURLConnection) url.openConnection();
+        Assert.assertEquals(200, first.getResponseCode());
+        String etag = first.getHeaderField("Etag");
+        first.getInputStream().close();
+
+        HttpURLConnection second = (HttpURLConnection) url.openConnection();
+        second.setRequestProperty("If-None-Match", etag);
+        Assert.assertEquals(304, second.getResponseCode());
+        Assert.assertEquals("Accept-Encoding", second.getHeaderField("Vary"));
+        long maxAge = Long.parseLong(second.getHeaderField("Cache-Control").replaceAll(".*max-age=", ""));
+        Assert.assertTrue(maxAge <= Duration.between(ZonedDateTime.now(), leader.getUpdateDoneTime()).getSeconds() + 1);
+    }
+
+    private static Properties settings() {
+        Properties p = new Properties();
+        p.setProperty("data.snapshot", "");
+        p.setProperty("data.archive", "");
+        return p;
+    }
+
+    /**
+     * Has a day from tomorrow on for every list item of the page.
+     */
+    private static class PageSource implements MensaSource {
+        private final String url;
+        private final AtomicInteger parsed = new AtomicInteger();
+        private volatile String location;
+
+        PageSource(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return "Fixture";
+        }
+
+        @Override
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public List<Mensa> getMensas() {
+            return Arrays.asList(Mensa.CLASSIC);
+        }
+
+        @Override
+        public Map<Mensa, List<? extends MensaDay>> parse(Document doc) {
+            parsed.incrementAndGet();
+            location = doc.location();
+            LocalDate tomorrow = LocalDate.now(MenuIndex.ZONE).plusDays(1);
+            List<MensaDay> days = new ArrayList<>();
+            for (int i = 0; i < doc.select("li").size(); i++) {
+                days.add(TestMenus.day(tomorrow.plusDays(i)));
+            }
+            return Collections.singletonMap(Mensa.CLASSIC, days);
+        }
+    }
+
+    private static class UpstreamServer extends NanoHTTPD {
+        private volatile String body;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        UpstreamServer() {
+            super("127.0.0.1", 0);
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + getListeningPort() + "/menu";
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            requests.incrementAndGet();
+            return newFixedLengthResponse(Response.Status.OK, "text/html; charset=utf-8", body);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package jkumensa.bot;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import jkumensa.api.Mensa;
+import jkumensa.bot.datahandling.MenuIndex;
+import org.junit.Assert;
+import org.junit.Test;
+import org.telegram.telegrambots.api.objects.inlinequery.result.InlineQueryResult;
+import org.telegram.telegrambots.api.objects.inlinequery.result.InlineQueryResultArticle;
+import static jkumensa.bot.TestMenus.day;
+
+public class InlineResultCacheTest {
+    private static final LocalDate MONDAY = LocalDate.of(2030, 1, 7);
+
+    @Test
+    public void answersFromPreparedArticles() {
+        MensaMenuFormatter formatter = new MensaMenuFormatter();
+        InlineResultCache cache = new InlineResultCache(formatter, new MenuRenderCache(formatter));
+        cache.rebuild(new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY)))
+            .put(Mensa.CHOICE, Collections.singletonList(day(MONDAY)))
+            .put(Mensa.KHG, Collections.singletonList(day(MONDAY.plusDays(1))))
+            .build(MONDAY), MONDAY);
+
+        List<InlineQueryResult> all = cache.find("", MONDAY, MONDAY);
+        Assert.assertEquals(2, all.size());
+        Assert.assertSame(all, cache.find("  ", MONDAY, MONDAY));
+
+        List<InlineQueryResult> classic = cache.find("Cla", MONDAY, MONDAY);
+        Assert.assertEquals(1, classic.size());
+        Assert.assertEquals("CLASSIC:2030-01-07", ((InlineQueryResultArticle) classic.get(0)).getId());
+
+        Assert.assertEquals(1, cache.find("khg morgen", MONDAY, MONDAY).size());
+        Assert.assertEquals(1, cache.find("2030-01-08", MONDAY, MONDAY).size());
+        Assert.assertTrue(cache.find("khg", MONDAY, MONDAY).isEmpty());
+        Assert.assertTrue(cache.find("classic 2030-02-01", MONDAY, MONDAY).isEmpty());
+    }
+}
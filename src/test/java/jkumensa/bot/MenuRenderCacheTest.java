@@ -0,0 +1,64 @@
+package jkumensa.bot;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaApiResult;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.data.MensaApiResultData;
+import jkumensa.bot.datahandling.MenuChanges;
+import jkumensa.bot.datahandling.MenuIndex;
+import org.junit.Assert;
+import org.junit.Test;
+import static jkumensa.bot.TestMenus.day;
+
+public class MenuRenderCacheTest {
+
+    @Test
+    public void rendersOncePerGeneration() {
+        EnumMap<Mensa, List<? extends MensaCategory>> map = new EnumMap<>(Mensa.class);
+        map.put(Mensa.CLASSIC, Collections.emptyList());
+        MensaApiResult data = new MensaApiResultData(1508104800L, map);
+
+        MenuRenderCache cache = new MenuRenderCache(new MensaMenuFormatter());
+        cache.rebuild(data);
+
+        MenuRenderCache.RenderedMenu first = cache.get(data, Mensa.CLASSIC);
+        Assert.assertNotNull(first);
+        Assert.assertTrue(first.getTitle().contains("CLASSIC"));
+        Assert.assertSame(first, cache.get(data, Mensa.CLASSIC));
+        Assert.assertNull(cache.get(data, Mensa.KHG));
+
+        cache.rebuild(data);
+        Assert.assertNotSame(first, cache.get(data, Mensa.CLASSIC));
+    }
+
+    @Test
+    public void keepsUnchangedMenus() {
+        LocalDate monday = LocalDate.of(2017, 10, 16);
+        MenuIndex old = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(monday)))
+            .put(Mensa.CHOICE, Collections.singletonList(day(monday)))
+            .build(monday);
+        MenuRenderCache cache = new MenuRenderCache(new MensaMenuFormatter());
+        cache.rebuild(old.toResult(monday));
+        MenuRenderCache.RenderedMenu classic = cache.get(old.toResult(monday), Mensa.CLASSIC);
+        MenuRenderCache.RenderedMenu choice = cache.get(old.toResult(monday), Mensa.CHOICE);
+
+        MenuIndex current = new MenuIndex.Builder()
+            .putAll(Mensa.CLASSIC, old)
+            .build(monday);
+        cache.update(MenuChanges.between(old, current), current.toResult(monday));
+        Assert.assertSame(classic, cache.get(current.toResult(monday), Mensa.CLASSIC));
+        Assert.assertNotSame(choice, cache.get(old.toResult(monday), Mensa.CHOICE));
+    }
+
+    @Test
+    public void packsAtPartBoundaries() {
+        List<String> packed = MenuRenderCache.pack(Arrays.asList("aaaa", "bbb", "cc", "dddddddd"), 8);
+        Assert.assertEquals(Arrays.asList("aaaa\nbbb", "cc", "dddddddd"), packed);
+    }
+}
@@ -0,0 +1,123 @@
+package jkumensa.bot;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import jkumensa.api.AllergyCode;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaCategory;
+import jkumensa.api.MensaFoodCharacteristic;
+import jkumensa.api.MensaMeal;
+import jkumensa.bot.datahandling.MenuIndex;
+import jkumensa.parser.MensaDay;
+
+/**
+ * Builds menus for tests.
+ */
+public final class TestMenus {
+    private TestMenus() {
+    }
+
+    /**
+     * Returns an index holding only the day of the mensa.
+     */
+    public static MenuIndex index(Mensa mensa, LocalDate date, MensaCategory... categories) {
+        return new MenuIndex.Builder().put(mensa, Collections.singletonList(day(date, categories))).build(date);
+    }
+
+    public static MensaDay day(LocalDate date, MensaCategory... categories) {
+        List<MensaCategory> list = Arrays.asList(categories);
+        return new MensaDay() {
+            @Override
+            public LocalDate getDate() {
+                return date;
+            }
+
+            @Override
+            public List<? extends MensaCategory> getCategories() {
+                return list;
+            }
+        };
+    }
+
+    public static MensaCategory category(String title, MensaMeal... meals) {
+        List<MensaMeal> m = Arrays.asList(meals);
+        return new MensaCategory() {
+            @Override
+            public String getTitle() {
+                return title;
+            }
+
+            @Override
+            public List<? extends MensaMeal> getMeals() {
+                return m;
+            }
+
+            @Override
+            public Set<? extends MensaFoodCharacteristic> getFoodCharacteristics() {
+                return Collections.emptySet();
+            }
+
+            @Override
+            public float getPriceGuest() {
+                return 0;
+            }
+
+            @Override
+            public float getPriceStudent() {
+                return 0;
+            }
+
+            @Override
+            public float getPriceStudentBonus() {
+                return 0;
+            }
+        };
+    }
+
+    public static MensaMeal meal(String title) {
+        return meal(title, 0);
+    }
+
+    /**
+     * @param price the student price, guests pay one more and with bonus it
+     * is one less
+     */
+    public static MensaMeal meal(String title, float price, AllergyCode... codes) {
+        Set<AllergyCode> allergyCodes = codes.length == 0 ? EnumSet.noneOf(AllergyCode.class) : EnumSet.of(codes[0], codes);
+        return new MensaMeal() {
+            @Override
+            public String getTitle() {
+                return title;
+            }
+
+            @Override
+            public Set<? extends AllergyCode> getAllergyCodes() {
+                return allergyCodes;
+            }
+
+            @Override
+            public Set<? extends MensaFoodCharacteristic> getFoodCharacteristics() {
+                return Collections.emptySet();
+            }
+
+            @Override
+            public float getPriceGuest() {
+                return price + 1;
+            }
+
+            @Override
+            public float getPriceStudent() {
+                return price;
+            }
+
+            @Override
+            public float getPriceStudentBonus() {
+                return price - 1;
+            }
+        };
+    }
+}
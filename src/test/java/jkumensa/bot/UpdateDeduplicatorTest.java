@@ -0,0 +1,66 @@
+package jkumensa.bot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class UpdateDeduplicatorTest {
+
+    @Test
+    public void dropsRepeatedUpdateIds() {
+        UpdateDeduplicator d = new UpdateDeduplicator(8, 8, 5);
+        for (int id = 100; id < 110; id++) {
+            Assert.assertTrue(d.firstUpdate(id));
+        }
+        Assert.assertFalse(d.firstUpdate(109));
+        Assert.assertFalse(d.firstUpdate(105));
+
+        d.forgetUpdate(109);
+        Assert.assertTrue(d.firstUpdate(109));
+    }
+
+    @Test
+    public void acceptsIdsAfterTheyStartedAgain() {
+        UpdateDeduplicator d = new UpdateDeduplicator(8, 8, 5);
+        for (int id = 100000; id < 100010; id++) {
+            Assert.assertTrue(d.firstUpdate(id));
+        }
+        for (int id = 500; id < 520; id++) {
+            Assert.assertTrue("lower ids after a restart of the sequence", d.firstUpdate(id));
+        }
+        Assert.assertFalse(d.firstUpdate(519));
+    }
+
+    @Test
+    public void dropsRepeatedCallbacksForAWhile() {
+        AtomicLong now = new AtomicLong(1508140800L);
+        UpdateDeduplicator d = new UpdateDeduplicator(8, 64, 5, now::get);
+
+        Assert.assertTrue(d.firstCallback("42:7", "newmensamenu:CLASSIC"));
+        Assert.assertFalse(d.firstCallback("42:7", "newmensamenu:CLASSIC"));
+        Assert.assertTrue(d.firstCallback("42:7", "newmensamenu:CHOICE"));
+        Assert.assertTrue(d.firstCallback("43:7", "newmensamenu:CLASSIC"));
+
+        now.addAndGet(5);
+        Assert.assertTrue(d.firstCallback("42:7", "newmensamenu:CLASSIC"));
+    }
+
+    @Test
+    public void comparesCallbacksByTheirFullMessage() {
+        UpdateDeduplicator d = new UpdateDeduplicator(8, 64, 5);
+        //both have the same String.hashCode
+        Assert.assertEquals("inline:Aa".hashCode(), "inline:BB".hashCode());
+        Assert.assertTrue(d.firstCallback("inline:Aa", "newmensamenu:CLASSIC"));
+        Assert.assertTrue(d.firstCallback("inline:BB", "newmensamenu:CLASSIC"));
+        Assert.assertFalse(d.firstCallback("inline:BB", "newmensamenu:CLASSIC"));
+    }
+
+    @Test
+    public void acceptsAForgottenCallbackAgain() {
+        UpdateDeduplicator d = new UpdateDeduplicator(8, 64, 5);
+        Assert.assertTrue(d.firstCallback("42:7", "newmensamenu:CLASSIC"));
+        d.forgetCallback("42:7", "newmensamenu:CLASSIC");
+        Assert.assertTrue(d.firstCallback("42:7", "newmensamenu:CLASSIC"));
+        Assert.assertFalse(d.firstCallback("42:7", "newmensamenu:CLASSIC"));
+    }
+}
@@ -0,0 +1,52 @@
+package jkumensa.bot.datahandling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 3600000);
+        breaker.recordFailure();
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        Assert.assertFalse(breaker.allowRequest());
+        breaker.recordSuccess();
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void allowsTrialAfterOpenTime() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.recordFailure();
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void letsASingleTrialThrough() {
+        AtomicLong now = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(2, 1000, now::get);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        Assert.assertTrue(breaker.isOpen());
+
+        now.addAndGet(1000);
+        Assert.assertFalse(breaker.isOpen());
+        Assert.assertTrue("trial", breaker.allowRequest());
+        Assert.assertFalse("only one trial at a time", breaker.allowRequest());
+        breaker.recordFailure();
+        Assert.assertFalse(breaker.allowRequest());
+
+        now.addAndGet(1000);
+        Assert.assertTrue(breaker.allowRequest());
+        now.addAndGet(999);
+        Assert.assertFalse(breaker.allowRequest());
+        now.addAndGet(1);
+        Assert.assertTrue("the next trial if the last one never reported", breaker.allowRequest());
+        breaker.recordSuccess();
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertTrue(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,128 @@
+package jkumensa.bot.datahandling;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConditionalFetcherTest {
+    private FixtureServer server;
+
+    @Before
+    public void start() throws Exception {
+        server = new FixtureServer();
+        server.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+    }
+
+    @After
+    public void stop() {
+        server.stop();
+    }
+
+    @Test
+    public void skipsParsingOnNotModified() throws Exception {
+        server.body = Files.readAllBytes(Paths.get("src/test/resources/html/mensa_2017-10-16.html"));
+        server.etag = "\"a\"";
+        ConditionalFetcher fetcher = new ConditionalFetcher(server.url());
+        AtomicInteger parsed = new AtomicInteger();
+
+        fetcher.commit(fetcher.fetch(doc -> parsed.incrementAndGet()));
+        Assert.assertNull(fetcher.fetch(doc -> parsed.incrementAndGet()));
+        Assert.assertEquals(1, parsed.get());
+        Assert.assertEquals(1, server.notModified.get());
+    }
+
+    @Test
+    public void skipsParsingOnSameContent() throws Exception {
+        server.body = Files.readAllBytes(Paths.get("src/test/resources/html/mensa_2017-10-16.html"));
+        ConditionalFetcher fetcher = new ConditionalFetcher(server.url());
+        AtomicInteger parsed = new AtomicInteger();
+
+        fetcher.commit(fetcher.fetch(doc -> parsed.incrementAndGet()));
+        Assert.assertNull(fetcher.fetch(doc -> parsed.incrementAndGet()));
+
+        server.body = Files.readAllBytes(Paths.get("src/test/resources/html/mensa_2017-10-20.html"));
+        Assert.assertNotNull(fetcher.fetch(doc -> parsed.incrementAndGet()));
+        Assert.assertEquals(2, parsed.get());
+    }
+
+    @Test
+    public void retriesParsingAfterFailure() throws Exception {
+        server.body = Files.readAllBytes(Paths.get("src/test/resources/html/mensa_2017-10-16.html"));
+        server.etag = "\"a\"";
+        ConditionalFetcher fetcher = new ConditionalFetcher(server.url());
+
+        try {
+            fetcher.fetch(doc -> {
+                throw new IllegalStateException("broken");
+            });
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            //expected
+        }
+        Assert.assertNotNull(fetcher.fetch(doc -> doc.title()));
+    }
+
+    @Test
+    public void parsesAgainUntilCommitted() throws Exception {
+        server.body = Files.readAllBytes(Paths.get("src/test/resources/html/mensa_2017-10-16.html"));
+        server.etag = "\"a\"";
+        ConditionalFetcher fetcher = new ConditionalFetcher(server.url());
+        AtomicInteger parsed = new AtomicInteger();
+
+        Assert.assertNotNull(fetcher.fetch(doc -> parsed.incrementAndGet()));
+        Assert.assertNull(fetcher.getPage());
+        ConditionalFetcher.Fetched<Integer> again = fetcher.fetch(doc -> parsed.incrementAndGet());
+        Assert.assertEquals(0, server.notModified.get());
+
+        fetcher.commit(again);
+        Assert.assertNull(fetcher.fetch(doc -> parsed.incrementAndGet()));
+        Assert.assertEquals(2, parsed.get());
+        Assert.assertEquals("\"a\"", fetcher.getPage().getEtag());
+    }
+
+    @Test
+    public void ignoresCommitOfAnOutdatedResult() throws Exception {
+        server.body = Files.readAllBytes(Paths.get("src/test/resources/html/mensa_2017-10-16.html"));
+        ConditionalFetcher fetcher = new ConditionalFetcher(server.url());
+        ConditionalFetcher.Fetched<String> late = fetcher.fetch(doc -> doc.title());
+
+        server.body = Files.readAllBytes(Paths.get("src/test/resources/html/mensa_2017-10-20.html"));
+        ConditionalFetcher.Fetched<String> current = fetcher.fetch(doc -> doc.title());
+        fetcher.commit(current);
+        fetcher.commit(late);
+        Assert.assertArrayEquals(server.body, fetcher.getPage().getBody());
+    }
+
+    private static class FixtureServer extends NanoHTTPD {
+        private volatile byte[] body;
+        private volatile String etag;
+        private final AtomicInteger notModified = new AtomicInteger();
+
+        FixtureServer() {
+            super("127.0.0.1", 0);
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + getListeningPort() + "/";
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            if (etag != null && etag.equals(session.getHeaders().get("if-none-match"))) {
+                notModified.incrementAndGet();
+                return newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, null);
+            }
+            Response r = newFixedLengthResponse(Response.Status.OK, "text/html; charset=utf-8", new ByteArrayInputStream(body), body.length);
+            if (etag != null) {
+                r.addHeader("ETag", etag);
+            }
+            return r;
+        }
+    }
+}
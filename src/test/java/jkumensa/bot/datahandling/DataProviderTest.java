@@ -0,0 +1,112 @@
+package jkumensa.bot.datahandling;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import jkumensa.api.Mensa;
+import jkumensa.bot.TestMenus;
+import jkumensa.parser.MensaDay;
+import org.jsoup.nodes.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataProviderTest {
+    private UpstreamServer upstream;
+    private DataProvider provider;
+
+    @Before
+    public void start() throws Exception {
+        upstream = new UpstreamServer();
+        upstream.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+    }
+
+    @After
+    public void stop() {
+        if (provider != null) {
+            provider.stop();
+        }
+        upstream.stop();
+    }
+
+    @Test
+    public void appliesAPageThatMissedTheDeadlineNextTime() throws Exception {
+        SlowSource source = new SlowSource(upstream.url());
+        Properties p = new Properties();
+        p.setProperty("data.snapshot", "");
+        p.setProperty("data.archive", "");
+        p.setProperty("fetch.deadline", "500");
+        provider = new DataProvider(p, Collections.singletonList(source));
+
+        provider.update();
+        Assert.assertTrue(provider.getMenuIndex().getDates().isEmpty());
+
+        //let the late fetch finish, the same page is served again
+        source.release.countDown();
+        provider.update();
+        Assert.assertEquals(1, provider.getMenuIndex().getDates().size());
+        Assert.assertNotNull(provider.getPage("Slow"));
+        Assert.assertEquals(2, source.parsed.get());
+    }
+
+    /**
+     * Has a single day tomorrow and takes until it is released to parse the
+     * page the first time.
+     */
+    private static class SlowSource implements MensaSource {
+        private final String url;
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger parsed = new AtomicInteger();
+
+        SlowSource(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public String getName() {
+            return "Slow";
+        }
+
+        @Override
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public List<Mensa> getMensas() {
+            return Collections.singletonList(Mensa.CLASSIC);
+        }
+
+        @Override
+        public Map<Mensa, List<? extends MensaDay>> parse(Document doc) throws Exception {
+            if (parsed.incrementAndGet() == 1) {
+                release.await();
+            }
+            LocalDate tomorrow = LocalDate.now(MenuIndex.ZONE).plusDays(1);
+            return Collections.singletonMap(Mensa.CLASSIC, Collections.singletonList(TestMenus.day(tomorrow)));
+        }
+    }
+
+    private static class UpstreamServer extends NanoHTTPD {
+        UpstreamServer() {
+            super("127.0.0.1", 0);
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + getListeningPort() + "/menu";
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            Response r = newFixedLengthResponse(Response.Status.OK, "text/html; charset=utf-8", "<p>menu</p>");
+            r.addHeader("ETag", "\"menu\"");
+            return r;
+        }
+    }
+}
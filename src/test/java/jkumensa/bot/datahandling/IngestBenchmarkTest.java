@@ -0,0 +1,209 @@
+package jkumensa.bot.datahandling;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jkumensa.api.Mensa;
+import jkumensa.parser.MensaDay;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Measures the ingest of every stored page in two stages: jsoup, and the
+ * mensa parser together with building the menu index. For each page and
+ * stage the fastest time and the bytes allocated, and for the menus the heap
+ * they retain, are compared to the baseline in
+ * ingest-thresholds.properties times its tolerance.
+ * <p>
+ * Runs in {@code mvn verify} with the time tolerance multiplied by
+ * {@code ingest.timeFactor}, since timings depend on the machine, and alone
+ * with the plain tolerance in {@code mvn -Pingest-bench test}. With
+ * {@code -Dingest.record=<file>} the measured values are written to the file
+ * in the format of the baseline.
+ */
+public class IngestBenchmarkTest {
+    private static final int WARMUP = Integer.getInteger("ingest.warmup", 20);
+    private static final int RUNS = Integer.getInteger("ingest.runs", 50);
+    private static final int RETAINED_COPIES = 20;
+    private static final double TIME_FACTOR = Double.parseDouble(System.getProperty("ingest.timeFactor", "1"));
+
+    @Test
+    public void ingestStaysWithinBaseline() throws Exception {
+        Assume.assumeTrue("Runs in mvn verify or with -Pingest-bench", Boolean.getBoolean("ingest.benchmark"));
+
+        Properties baseline = new Properties();
+        try (InputStream in = getClass().getResourceAsStream("/ingest-thresholds.properties")) {
+            baseline.load(in);
+        }
+
+        //warm up jsoup on all pages, otherwise the first pages measure the jit
+        for (int i = 0; i < WARMUP; i++) {
+            for (Path page : pages()) {
+                Jsoup.parse(new ByteArrayInputStream(Files.readAllBytes(page)), null, "");
+            }
+        }
+
+        Properties measured = new Properties();
+        List<String> failures = new ArrayList<>();
+        for (Path page : pages()) {
+            String name = page.getFileName().toString();
+            MensaSource source = sourceOf(baseline, name);
+            if (source == null) {
+                failures.add(name + ": no source mapped in ingest-thresholds.properties");
+                continue;
+            }
+            byte[] html = Files.readAllBytes(page);
+
+            Stage jsoup = measure(() -> Jsoup.parse(new ByteArrayInputStream(html), null, source.getUrl()));
+            System.out.printf("%-24s jsoup %8.2f ms %12d bytes allocated%n", name, jsoup.millis, jsoup.allocated);
+            check(failures, baseline, measured, name + ".jsoup.timeMillis", jsoup.millis, TIME_FACTOR);
+            check(failures, baseline, measured, name + ".jsoup.allocatedBytes", jsoup.allocated, 1);
+
+            Document doc = Jsoup.parse(new ByteArrayInputStream(html), null, source.getUrl());
+            if (menus(source, doc).getDates().isEmpty()) {
+                //nothing to measure, for example with a parser that does not know the layout of the page
+                System.out.printf("%-24s menus: the %s parser found no menus, not measured%n", name, source.getName());
+                continue;
+            }
+            Stage menus = measure(() -> menus(source, doc));
+            long retained = retainedBytes(source, doc);
+            System.out.printf("%-24s menus %8.2f ms %12d bytes allocated %10d bytes retained%n",
+                name, menus.millis, menus.allocated, retained);
+            check(failures, baseline, measured, name + ".menus.timeMillis", menus.millis, TIME_FACTOR);
+            check(failures, baseline, measured, name + ".menus.allocatedBytes", menus.allocated, 1);
+            check(failures, baseline, measured, name + ".menus.retainedBytes", retained, 1);
+        }
+
+        String record = System.getProperty("ingest.record");
+        if (record != null) {
+            try (OutputStream out = Files.newOutputStream(Paths.get(record))) {
+                measured.store(out, "Measured by IngestBenchmarkTest");
+            }
+        }
+        Assert.assertTrue(String.join("\n", failures), failures.isEmpty());
+    }
+
+    private static MenuIndex menus(MensaSource source, Document doc) throws Exception {
+        Map<Mensa, List<? extends MensaDay>> parsed = source.parse(doc);
+        MenuIndex.Builder b = new MenuIndex.Builder();
+        parsed.forEach((mensa, days) -> {
+            if (days != null) {
+                b.put(mensa, days);
+            }
+        });
+        return b.build(LocalDate.MIN);
+    }
+
+    /**
+     * Returns the fastest time and the average allocation of the task after
+     * warming it up. Noise on a shared machine only ever slows a run down, so
+     * the fastest run is the steadiest to compare.
+     */
+    private static Stage measure(Callable<?> task) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            task.call();
+        }
+        long[] times = new long[RUNS];
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            task.call();
+            times[i] = System.nanoTime() - start;
+        }
+        long allocated = (allocatedBytes() - allocatedBefore) / RUNS;
+        Arrays.sort(times);
+        return new Stage(times[0] / 1e6, allocated);
+    }
+
+    private static class Stage {
+        private final double millis;
+        private final long allocated;
+
+        Stage(double millis, long allocated) {
+            this.millis = millis;
+            this.allocated = allocated;
+        }
+    }
+
+    /**
+     * Approximates the heap kept by the parsed menus from the used heap
+     * before and after parsing several copies and collecting the garbage.
+     */
+    private static long retainedBytes(MensaSource source, Document doc) throws Exception {
+        long before = usedHeapAfterGc();
+        MenuIndex[] copies = new MenuIndex[RETAINED_COPIES];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = menus(source, doc);
+        }
+        long after = usedHeapAfterGc();
+        Assert.assertNotNull(copies[copies.length - 1]);
+        return Math.max(0, (after - before) / copies.length);
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Fails if the value exceeds its baseline times the tolerance of the
+     * metric. Values without a baseline are only reported.
+     */
+    private static void check(List<String> failures, Properties baseline, Properties measured, String key, double value, double factor) {
+        measured.setProperty(key, key.endsWith("Millis") ? String.format(Locale.ROOT, "%.2f", value) : String.valueOf((long) value));
+        String raw = baseline.getProperty(key);
+        if (raw == null) {
+            System.out.printf("No baseline for %s, record one with -Dingest.record=<file>%n", key);
+            return;
+        }
+        String metric = key.substring(key.lastIndexOf('.') + 1);
+        double limit = Double.parseDouble(raw) * Double.parseDouble(baseline.getProperty("tolerance." + metric)) * factor;
+        if (value > limit) {
+            failures.add(key + " " + value + " exceeds " + limit);
+        }
+    }
+
+    private static List<Path> pages() throws Exception {
+        try (Stream<Path> s = Files.list(Paths.get(IngestBenchmarkTest.class.getResource("/html").toURI()))) {
+            return s.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Looks up the source the page was stored from, given as
+     * {@code <page>.source} with the name of the source.
+     */
+    private static MensaSource sourceOf(Properties baseline, String page) {
+        String name = baseline.getProperty(page + ".source");
+        for (MensaSource s : Arrays.asList(new JkuMensaSource(), new KhgMensaSource())) {
+            if (s.getName().equals(name)) {
+                return s;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,57 @@
+package jkumensa.bot.datahandling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import jkumensa.api.Mensa;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static jkumensa.bot.TestMenus.day;
+
+public class MenuArchiveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendsOnlyChangesAndSurvivesReopen() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("archive.dat");
+        LocalDate monday = LocalDate.of(2030, 1, 7);
+        MenuIndex index = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(monday)))
+            .put(Mensa.KHG, Collections.singletonList(day(monday.plusDays(1))))
+            .build(monday);
+
+        MenuArchive archive = new MenuArchive(file);
+        archive.record(index);
+        long size = Files.size(file.resolveSibling("archive.dat.idx"));
+        archive.record(index);
+        Assert.assertEquals(size, Files.size(file.resolveSibling("archive.dat.idx")));
+
+        MenuArchive reopened = new MenuArchive(file);
+        String all = read(reopened.stream(monday, monday.plusDays(1), null));
+        Assert.assertTrue(all.startsWith("[{\"date\":\"2030-01-07\",\"mensa\":\"CLASSIC\""));
+        Assert.assertTrue(all.contains("{\"date\":\"2030-01-08\",\"mensa\":\"KHG\""));
+        Assert.assertTrue(all.endsWith("}]"));
+
+        Assert.assertFalse(read(reopened.stream(monday, monday.plusDays(1), Mensa.KHG)).contains("CLASSIC"));
+        Assert.assertEquals("[]", read(reopened.stream(monday.plusDays(2), monday.plusDays(9), null)));
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (InputStream i = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[64];
+            int n;
+            while ((n = i.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
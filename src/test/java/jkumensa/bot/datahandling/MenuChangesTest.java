@@ -0,0 +1,48 @@
+package jkumensa.bot.datahandling;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumSet;
+import jkumensa.api.AllergyCode;
+import jkumensa.api.Mensa;
+import org.junit.Assert;
+import org.junit.Test;
+import static jkumensa.bot.TestMenus.category;
+import static jkumensa.bot.TestMenus.day;
+import static jkumensa.bot.TestMenus.index;
+import static jkumensa.bot.TestMenus.meal;
+
+public class MenuChangesTest {
+    private static final LocalDate MONDAY = LocalDate.of(2030, 1, 7);
+
+    @Test
+    public void equalCopiesAreNoChange() {
+        MenuIndex a = index(Mensa.CLASSIC, MONDAY, category("Menü 1", meal("Schnitzel", 5.2f, AllergyCode.A)));
+        MenuIndex b = index(Mensa.CLASSIC, MONDAY, category("Menü 1", meal("Schnitzel", 5.2f, AllergyCode.A)));
+        Assert.assertTrue(MenuChanges.between(a, b).isEmpty());
+        Assert.assertTrue(MenuChanges.between(a, a).isEmpty());
+    }
+
+    @Test
+    public void detectsChangesPerMensaAndDay() {
+        MenuIndex old = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY, category("Menü 1", meal("Schnitzel", 5.2f, AllergyCode.A)))))
+            .put(Mensa.KHG, Collections.singletonList(day(MONDAY, category("Tagesteller", meal("Suppe", 3f)))))
+            .build(MONDAY);
+
+        MenuIndex price = index(Mensa.CLASSIC, MONDAY, category("Menü 1", meal("Schnitzel", 5.4f, AllergyCode.A)));
+        MenuChanges changes = MenuChanges.between(old, price);
+        Assert.assertEquals(MenuChanges.Change.CHANGED, changes.get(MONDAY).get(Mensa.CLASSIC));
+        Assert.assertEquals(MenuChanges.Change.REMOVED, changes.get(MONDAY).get(Mensa.KHG));
+
+        MenuIndex allergy = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY, category("Menü 1", meal("Schnitzel", 5.2f, AllergyCode.A, AllergyCode.C)))))
+            .putAll(Mensa.KHG, old)
+            .put(Mensa.CHOICE, Collections.singletonList(day(MONDAY.plusDays(1), category("Pasta"))))
+            .build(MONDAY);
+        changes = MenuChanges.between(old, allergy);
+        Assert.assertEquals(Collections.singleton(Mensa.CLASSIC), changes.get(MONDAY).keySet());
+        Assert.assertEquals(MenuChanges.Change.ADDED, changes.get(MONDAY.plusDays(1)).get(Mensa.CHOICE));
+        Assert.assertEquals(EnumSet.of(Mensa.CLASSIC, Mensa.CHOICE), changes.getMensas());
+    }
+}
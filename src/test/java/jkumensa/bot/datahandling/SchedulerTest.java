@@ -0,0 +1,22 @@
+package jkumensa.bot.datahandling;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SchedulerTest {
+    private static final ZoneId ZONE = ZoneId.of("Europe/Berlin");
+
+    @Test
+    public void nextUpdateSameDay() {
+        ZonedDateTime now = ZonedDateTime.of(2017, 10, 16, 11, 30, 0, 0, ZONE);
+        Assert.assertEquals(ZonedDateTime.of(2017, 10, 16, 13, 0, 0, 0, ZONE), Scheduler.getNextUpdateTime(Scheduler.DEFAULT_UPDATE_TIMES, now));
+    }
+
+    @Test
+    public void nextUpdateNextDay() {
+        ZonedDateTime now = ZonedDateTime.of(2017, 10, 16, 23, 0, 0, 0, ZONE);
+        Assert.assertEquals(ZonedDateTime.of(2017, 10, 17, 8, 0, 0, 0, ZONE), Scheduler.getNextUpdateTime(Scheduler.DEFAULT_UPDATE_TIMES, now));
+    }
+}
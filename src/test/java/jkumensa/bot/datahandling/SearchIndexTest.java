@@ -0,0 +1,50 @@
+package jkumensa.bot.datahandling;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import jkumensa.api.Mensa;
+import jkumensa.api.MensaCategory;
+import org.junit.Assert;
+import org.junit.Test;
+import static jkumensa.bot.TestMenus.category;
+import static jkumensa.bot.TestMenus.day;
+import static jkumensa.bot.TestMenus.meal;
+
+public class SearchIndexTest {
+    private static final LocalDate MONDAY = LocalDate.of(2030, 1, 7);
+
+    @Test
+    public void normalizes() {
+        Assert.assertEquals("knoedel", SearchIndex.stem(SearchIndex.fold("Knödeln")));
+        Assert.assertEquals(SearchIndex.stem(SearchIndex.fold("Strasse")), SearchIndex.stem(SearchIndex.fold("Straße")));
+        Assert.assertTrue(SearchIndex.terms("Puten-Schnitzel", false).contains("schnitzel"));
+    }
+
+    @Test
+    public void findsCompoundsAndUpdatesIncrementally() {
+        SearchIndex index = new SearchIndex();
+        MensaCategory classic = category("Menü 1", meal("Putenschnitzel mit Reis"), meal("Suppe"));
+        index.update(new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY, classic)))
+            .put(Mensa.KHG, Collections.singletonList(day(MONDAY.plusDays(1),
+                category("Tagesteller", meal("Wiener Schnitzel"), meal("Kaiserschmarrn")))))
+            .build(MONDAY));
+
+        List<SearchIndex.Hit> hits = index.search("schnitzel", MONDAY, 10);
+        Assert.assertEquals(2, hits.size());
+        Assert.assertEquals(Mensa.CLASSIC, hits.get(0).getMensa());
+        Assert.assertEquals("Putenschnitzel mit Reis", hits.get(0).getMeal());
+        Assert.assertEquals(Mensa.KHG, hits.get(1).getMensa());
+
+        Assert.assertEquals(1, index.search("wiener schnitzel", MONDAY, 10).size());
+        Assert.assertEquals(2, index.search("menu", MONDAY, 10).size());
+        Assert.assertTrue(index.search("schnitzel", MONDAY.plusDays(2), 10).isEmpty());
+
+        index.update(new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY, classic)))
+            .build(MONDAY));
+        Assert.assertEquals(1, index.search("schnitzel", MONDAY, 10).size());
+        Assert.assertTrue(index.search("kaiserschmarrn", MONDAY, 10).isEmpty());
+    }
+}
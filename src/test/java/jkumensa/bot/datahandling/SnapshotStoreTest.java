@@ -0,0 +1,33 @@
+package jkumensa.bot.datahandling;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        SnapshotStore store = new SnapshotStore(folder.getRoot().toPath().resolve("snapshot.dat"));
+        Assert.assertTrue(store.read().isEmpty());
+
+        Map<String, ConditionalFetcher.Page> pages = new LinkedHashMap<>();
+        pages.put("JKU", new ConditionalFetcher.Page("\"a\"", null, "UTF-8", "<html>jku</html>".getBytes(StandardCharsets.UTF_8)));
+        pages.put("KHG", new ConditionalFetcher.Page(null, "Mon, 16 Oct 2017 08:00:00 GMT", null, new byte[0]));
+        store.write(pages);
+
+        Map<String, ConditionalFetcher.Page> read = store.read();
+        Assert.assertEquals(pages.keySet(), read.keySet());
+        Assert.assertEquals("\"a\"", read.get("JKU").getEtag());
+        Assert.assertArrayEquals(pages.get("JKU").getBody(), read.get("JKU").getBody());
+        Assert.assertNull(read.get("KHG").getEtag());
+        Assert.assertEquals("Mon, 16 Oct 2017 08:00:00 GMT", read.get("KHG").getLastModified());
+        Assert.assertEquals(1, folder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,129 @@
+package jkumensa.bot.http;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntSupplier;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class AsyncRunnersTest {
+    @Test
+    public void createsTheConfiguredRunner() {
+        Properties p = new Properties();
+        Assert.assertNull(AsyncRunners.fromSettings(p, "test"));
+
+        p.setProperty("http.runner", "bounded");
+        Assert.assertTrue(AsyncRunners.fromSettings(p, "test") instanceof BoundedAsyncRunner);
+
+        p.setProperty("http.runner", "other");
+        try {
+            AsyncRunners.fromSettings(p, "test");
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+            //expected
+        }
+    }
+
+    @Test
+    public void fallsBackWithoutVirtualThreads() {
+        Assume.assumeFalse("Only on JVMs without virtual threads", VirtualThreadAsyncRunner.isSupported());
+        Properties p = new Properties();
+        p.setProperty("http.runner", "virtual");
+        Assert.assertNull(AsyncRunners.fromSettings(p, "test"));
+        try {
+            new VirtualThreadAsyncRunner();
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            //expected
+        }
+    }
+
+    @Test
+    public void usesVirtualThreadsWhenSupported() {
+        Assume.assumeTrue("Only on JVMs with virtual threads", VirtualThreadAsyncRunner.isSupported());
+        Properties p = new Properties();
+        p.setProperty("http.runner", "virtual");
+        Assert.assertTrue(AsyncRunners.fromSettings(p, "test") instanceof VirtualThreadAsyncRunner);
+    }
+
+    @Test
+    public void closesConnectionsWhenSaturated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BoundedAsyncRunner runner = new BoundedAsyncRunner("test", 1, 1);
+        BlockingServer server = new BlockingServer(release);
+        server.setAsyncRunner(runner);
+        server.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+
+        try (Socket first = request(server); Socket second = request(server)) {
+            awaitCount(runner::getActiveCount, 1);
+            awaitCount(runner::getQueuedCount, 1);
+
+            try (Socket rejected = new Socket("127.0.0.1", server.getListeningPort())) {
+                rejected.setSoTimeout(5000);
+                Assert.assertEquals("closed without an answer", "", read(rejected.getInputStream()));
+            }
+
+            release.countDown();
+            Assert.assertTrue(read(first.getInputStream()).startsWith("HTTP/1.1 200 "));
+            Assert.assertTrue(read(second.getInputStream()).startsWith("HTTP/1.1 200 "));
+        } finally {
+            release.countDown();
+            server.stop();
+        }
+    }
+
+    private static Socket request(NanoHTTPD server) throws Exception {
+        Socket s = new Socket("127.0.0.1", server.getListeningPort());
+        s.setSoTimeout(5000);
+        s.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        s.getOutputStream().flush();
+        return s;
+    }
+
+    private static void awaitCount(IntSupplier count, int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && count.getAsInt() != expected; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, count.getAsInt());
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } catch (SocketException ex) {
+            //reset by the server
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class BlockingServer extends NanoHTTPD {
+        private final CountDownLatch release;
+
+        BlockingServer(CountDownLatch release) {
+            super("127.0.0.1", 0);
+            this.release = release;
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return newFixedLengthResponse("ok");
+        }
+    }
+}
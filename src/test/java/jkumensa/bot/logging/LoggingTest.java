@@ -0,0 +1,59 @@
+package jkumensa.bot.logging;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.status.Status;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoggingTest {
+    @Test
+    public void ringKeepsNewestEntries() {
+        RecentUpdates recent = new RecentUpdates(3);
+        for (int i = 0; i < 5; i++) {
+            recent.record(new RecentUpdates.Entry(i, i, "command", "help", 10, null));
+        }
+        List<RecentUpdates.Entry> entries = recent.get();
+        Assert.assertEquals(3, entries.size());
+        Assert.assertEquals(4, entries.get(0).getUpdateId());
+        Assert.assertEquals(2, entries.get(2).getUpdateId());
+    }
+
+    @Test
+    public void samplesTheRequestedShare() {
+        int sampled = 0;
+        for (int id = 100000; id < 200000; id++) {
+            if (UpdateSamplingFilter.isSampled(String.valueOf(id).hashCode(), 500)) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(5000, sampled, 500);
+    }
+
+    @Test
+    public void productionConfigurationIsValid() throws Exception {
+        LoggerContext context = new LoggerContext();
+        context.putProperty("log.sampleRate", "0.5");
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        configurator.doConfigure(getClass().getResource("/logback-production.xml"));
+        for (Status s : context.getStatusManager().getCopyOfStatusList()) {
+            Assert.assertTrue(s.getMessage(), s.getLevel() < Status.WARN);
+        }
+        Assert.assertEquals(1, context.getTurboFilterList().size());
+        Iterator<Appender<ILoggingEvent>> appenders = context.getLogger(Logger.ROOT_LOGGER_NAME).iteratorForAppenders();
+        while (appenders.hasNext()) {
+            //the threshold counts free slots, so a percentage would hardly ever discard anything
+            AsyncAppender a = (AsyncAppender) appenders.next();
+            Assert.assertTrue(a.getName(), a.getDiscardingThreshold() >= a.getQueueSize() / 5);
+            Assert.assertTrue(a.getName(), a.getDiscardingThreshold() < a.getQueueSize());
+        }
+        context.stop();
+    }
+}
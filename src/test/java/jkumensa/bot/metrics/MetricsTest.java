@@ -0,0 +1,29 @@
+package jkumensa.bot.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+    @Test
+    public void histogramBucketsAreCumulative() {
+        Histogram h = new Histogram(new double[]{0.1, 1});
+        h.observe(0.05);
+        h.observe(0.5);
+        h.observe(0.5);
+        h.observe(5);
+        Assert.assertArrayEquals(new long[]{1, 2, 1}, h.getCounts());
+
+        Metrics.SOURCE_PARSE_DURATION.labels("TEST").observe(0.07);
+        String text = Metrics.scrape();
+        Assert.assertTrue(text.contains("# TYPE mensabot_source_parse_duration_seconds histogram\n"));
+        Assert.assertTrue(text.contains("mensabot_source_parse_duration_seconds_bucket{source=\"TEST\",le=\"0.1\"} 1\n"));
+        Assert.assertTrue(text.contains("mensabot_source_parse_duration_seconds_bucket{source=\"TEST\",le=\"+Inf\"} 1\n"));
+        Assert.assertTrue(text.contains("mensabot_source_parse_duration_seconds_count{source=\"TEST\"} 1\n"));
+    }
+
+    @Test
+    public void labelValuesAreEscaped() {
+        Metrics.UPDATES.labels("command", "a\"b").inc();
+        Assert.assertTrue(Metrics.scrape().contains("mensabot_updates_total{type=\"command\",name=\"a\\\"b\"} 1\n"));
+    }
+}
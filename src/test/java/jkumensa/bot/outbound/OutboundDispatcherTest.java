@@ -0,0 +1,144 @@
+package jkumensa.bot.outbound;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.telegram.telegrambots.api.methods.BotApiMethod;
+import org.telegram.telegrambots.api.methods.send.SendMessage;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.exceptions.TelegramApiException;
+import org.telegram.telegrambots.exceptions.TelegramApiRequestException;
+
+public class OutboundDispatcherTest {
+    private OutboundDispatcher dispatcher;
+
+    @After
+    public void stop() {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    @Test
+    public void keepsTheOrderOfAChat() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("bot.sender.chatRate", "1000");
+        p.setProperty("bot.sender.chatBurst", "1000");
+        p.setProperty("bot.sender.globalRate", "1000");
+        dispatcher = new OutboundDispatcher(p);
+        RecordingSender sender = new RecordingSender(0);
+        dispatcher.start(sender);
+
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(dispatcher.send(new SendMessage("1", String.valueOf(i))));
+            futures.add(dispatcher.send(new SendMessage("2", String.valueOf(i))));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+        for (String chat : new String[]{"1", "2"}) {
+            List<String> texts = new ArrayList<>();
+            for (SendMessage m : sender.sent) {
+                if (m.getChatId().equals(chat)) {
+                    texts.add(m.getText());
+                }
+            }
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(String.valueOf(i), texts.get(i));
+            }
+        }
+        Assert.assertEquals(0, dispatcher.getBacklog());
+    }
+
+    @Test
+    public void limitsAChatToOneCallPerSecondByDefault() throws Exception {
+        dispatcher = new OutboundDispatcher(new Properties());
+        RecordingSender sender = new RecordingSender(0);
+        dispatcher.start(sender);
+
+        CompletableFuture<?> first = dispatcher.send(new SendMessage("1", "a"));
+        CompletableFuture<?> second = dispatcher.send(new SendMessage("1", "b"));
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(sender.times.get(1) - sender.times.get(0) >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test
+    public void waitsAsLongAsTelegramAsks() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("bot.sender.chatRate", "1000");
+        p.setProperty("bot.sender.chatBurst", "1000");
+        dispatcher = new OutboundDispatcher(p);
+        RecordingSender sender = new RecordingSender(1);
+        dispatcher.start(sender);
+
+        dispatcher.send(new SendMessage("1", "a")).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, sender.times.size());
+        Assert.assertTrue(sender.times.get(1) - sender.times.get(0) >= TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void rejectsCallsBeyondTheBacklog() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("bot.sender.backlog", "2");
+        dispatcher = new OutboundDispatcher(p);
+
+        dispatcher.send(new SendMessage("1", "a"));
+        dispatcher.send(new SendMessage("2", "b"));
+        CompletableFuture<?> rejected = dispatcher.send(new SendMessage("3", "c"));
+        try {
+            rejected.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(2, dispatcher.getBacklog());
+    }
+
+    /**
+     * Records the messages it is asked to send and answers the first ones
+     * with 429 and a retry after one second.
+     */
+    private static class RecordingSender extends DefaultAbsSender {
+        private final List<SendMessage> sent = Collections.synchronizedList(new ArrayList<>());
+        private final List<Long> times = Collections.synchronizedList(new ArrayList<>());
+        private int rateLimited;
+
+        RecordingSender(int rateLimited) {
+            super(new DefaultBotOptions());
+            this.rateLimited = rateLimited;
+        }
+
+        @Override
+        public String getBotToken() {
+            return "test";
+        }
+
+        @Override
+        public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) throws TelegramApiException {
+            times.add(System.nanoTime());
+            synchronized (this) {
+                if (rateLimited > 0) {
+                    rateLimited--;
+                    throw new TelegramApiRequestException("Error sending", new JSONObject()
+                        .put("ok", false)
+                        .put("error_code", 429)
+                        .put("description", "Too Many Requests: retry after 1")
+                        .put("parameters", new JSONObject().put("retry_after", 1)));
+                }
+            }
+            sent.add((SendMessage) method);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package jkumensa.bot.outbound;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void limitsToCapacity() {
+        TokenBucket bucket = new TokenBucket(2, 0.001);
+        Assert.assertEquals(0, bucket.tryAcquire());
+        Assert.assertEquals(0, bucket.tryAcquire());
+        Assert.assertTrue(bucket.tryAcquire() > 0);
+        Assert.assertFalse(bucket.isFull());
+    }
+}
@@ -0,0 +1,141 @@
+package jkumensa.bot.subscription;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import jkumensa.api.Mensa;
+import jkumensa.bot.datahandling.MenuChanges;
+import jkumensa.bot.datahandling.MenuIndex;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.telegram.telegrambots.api.methods.send.SendMessage;
+import org.telegram.telegrambots.exceptions.TelegramApiRequestException;
+import static jkumensa.bot.TestMenus.category;
+import static jkumensa.bot.TestMenus.day;
+import static jkumensa.bot.TestMenus.meal;
+
+public class BroadcasterTest {
+    private static final LocalDate MONDAY = LocalDate.of(2030, 1, 7);
+
+    @Test
+    public void storeSurvivesRestart() throws Exception {
+        Path file = Files.createTempFile("subscriptions", ".dat");
+        Files.delete(file);
+        try {
+            SubscriptionStore store = new SubscriptionStore(file);
+            store.put(new SubscriptionStore.Subscription(-100123456789L, Mensa.CLASSIC, LocalTime.of(11, 30), 0));
+            store.put(new SubscriptionStore.Subscription(42, Mensa.KHG, LocalTime.of(9, 5), 0));
+            store.markSent(Collections.singletonList(42L), MONDAY);
+
+            SubscriptionStore reloaded = new SubscriptionStore(file);
+            Assert.assertEquals(2, reloaded.size());
+            Assert.assertEquals(LocalTime.of(11, 30), reloaded.get(-100123456789L).getTime());
+            Assert.assertEquals(MONDAY.toEpochDay(), reloaded.get(42).getLastSent());
+
+            reloaded.remove(42);
+            Assert.assertNull(new SubscriptionStore(file).get(42));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void sendsOncePerDayToDueSubscribers() throws Exception {
+        SubscriptionStore store = new SubscriptionStore(null);
+        long yesterday = MONDAY.minusDays(1).toEpochDay();
+        store.put(new SubscriptionStore.Subscription(1, Mensa.CLASSIC, LocalTime.of(11, 0), yesterday));
+        store.put(new SubscriptionStore.Subscription(2, Mensa.CLASSIC, LocalTime.of(12, 0), yesterday));
+        store.put(new SubscriptionStore.Subscription(3, Mensa.KHG, LocalTime.of(10, 0), yesterday));
+        store.put(new SubscriptionStore.Subscription(4, Mensa.CHOICE, LocalTime.of(10, 0), yesterday));
+
+        List<SendMessage> sent = new ArrayList<>();
+        Broadcaster broadcaster = new Broadcaster(
+            store,
+            (mensa, day) -> mensa == Mensa.CHOICE ? null : Arrays.asList(mensa + " 1", mensa + " 2"),
+            m -> {
+                sent.add(m);
+                CompletableFuture<Object> f = new CompletableFuture<>();
+                if (m.getChatId().equals("3")) {
+                    f.completeExceptionally(new TelegramApiRequestException("blocked",
+                        new JSONObject("{\"ok\":false,\"error_code\":403,\"description\":\"Forbidden\"}")));
+                } else {
+                    f.complete(null);
+                }
+                return f;
+            },
+            1
+        );
+
+        ZonedDateTime now = MONDAY.atTime(11, 30).atZone(MenuIndex.ZONE);
+        broadcaster.broadcast(now);
+        Assert.assertEquals(4, sent.size());
+        Assert.assertEquals("1", sent.get(0).getChatId());
+        Assert.assertEquals("CLASSIC 2", sent.get(1).getText());
+        Assert.assertEquals(MONDAY.toEpochDay(), store.get(1).getLastSent());
+        Assert.assertEquals(MONDAY.toEpochDay(), store.get(4).getLastSent());
+        Assert.assertEquals(yesterday, store.get(2).getLastSent());
+        Assert.assertNull("blocked chats are unsubscribed", store.get(3));
+
+        broadcaster.broadcast(now.plusMinutes(1));
+        Assert.assertEquals(4, sent.size());
+        broadcaster.broadcast(now.plusHours(1));
+        Assert.assertEquals(6, sent.size());
+
+        MenuIndex old = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY)))
+            .build(MONDAY);
+        MenuIndex current = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY)))
+            .put(Mensa.CHOICE, Collections.singletonList(day(MONDAY)))
+            .build(MONDAY);
+        broadcaster.sendChanges(MenuChanges.between(old, current), MONDAY);
+        Assert.assertEquals("only the changed mensa is sent again", 6, sent.size());
+        broadcaster.sendChanges(MenuChanges.between(current, old), MONDAY);
+        Assert.assertEquals("removed menus are not sent", 6, sent.size());
+    }
+
+    @Test
+    public void sendsChangedMenusAgain() throws Exception {
+        SubscriptionStore store = new SubscriptionStore(null);
+        long today = MONDAY.toEpochDay();
+        store.put(new SubscriptionStore.Subscription(1, Mensa.CLASSIC, LocalTime.of(11, 0), today));
+        store.put(new SubscriptionStore.Subscription(2, Mensa.CLASSIC, LocalTime.of(12, 0), today - 1));
+        store.put(new SubscriptionStore.Subscription(3, Mensa.KHG, LocalTime.of(11, 0), today));
+
+        List<SendMessage> sent = new ArrayList<>();
+        Broadcaster broadcaster = new Broadcaster(
+            store,
+            (mensa, day) -> Arrays.asList(mensa + " new"),
+            m -> {
+                sent.add(m);
+                return CompletableFuture.completedFuture(null);
+            },
+            1
+        );
+
+        MenuIndex old = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY, category("Menü 1", meal("Schnitzel", 5.2f)))))
+            .put(Mensa.KHG, Collections.singletonList(day(MONDAY, category("Tagesteller", meal("Suppe", 3f)))))
+            .build(MONDAY);
+        MenuIndex current = new MenuIndex.Builder()
+            .put(Mensa.CLASSIC, Collections.singletonList(day(MONDAY, category("Menü 1", meal("Gulasch", 5.2f)))))
+            .putAll(Mensa.KHG, old)
+            .build(MONDAY);
+        broadcaster.sendChanges(MenuChanges.between(old, current), MONDAY);
+
+        Assert.assertEquals("only subscribers that already got the changed menu", 2, sent.size());
+        Assert.assertEquals("1", sent.get(0).getChatId());
+        Assert.assertEquals(Broadcaster.CHANGE_NOTICE, sent.get(0).getText());
+        Assert.assertEquals("1", sent.get(1).getChatId());
+        Assert.assertEquals("CLASSIC new", sent.get(1).getText());
+        Assert.assertEquals(today - 1, store.get(2).getLastSent());
+    }
+}
@@ -0,0 +1,212 @@
+package jkumensa.bot.workaround;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.api.methods.BotApiMethod;
+import org.telegram.telegrambots.api.methods.send.SendMessage;
+import org.telegram.telegrambots.api.objects.Update;
+import org.telegram.telegrambots.generics.WebhookBot;
+
+public class SimpleWebhookTest {
+    private SimpleWebhook webhook;
+
+    @Before
+    public void start() throws Exception {
+        webhook = new SimpleWebhook("127.0.0.1", 0);
+        webhook.registerWebhook(new EchoBot());
+        webhook.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+    }
+
+    @After
+    public void stop() {
+        webhook.stopServer();
+    }
+
+    @Test
+    public void answersUpdatesFromTheRawBody() throws Exception {
+        //twice so the second request shows the first body was consumed exactly
+        for (int i = 0; i < 2; i++) {
+            String answer = post(update(i));
+            Assert.assertTrue(answer, answer.contains("\"chat_id\":\"42\""));
+            Assert.assertTrue(answer, answer.contains("\"text\":\"update " + i + "\""));
+        }
+    }
+
+    @Test
+    public void refusesBadBodiesAndClosesTheConnection() throws Exception {
+        Assert.assertTrue(raw("").startsWith("HTTP/1.1 411 "));
+        Assert.assertTrue(raw("Content-Length: 2000000\r\n").startsWith("HTTP/1.1 413 "));
+        Assert.assertTrue(raw("Content-Length: 12a\r\n").startsWith("HTTP/1.1 400 "));
+        Assert.assertTrue("truncated body", raw("Content-Length: 100\r\n", "{\"update_id\"").startsWith("HTTP/1.1 400 "));
+    }
+
+    @Test
+    public void answersBeforeProcessingAsynchronously() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BlockingQueue<Integer> processed = new LinkedBlockingQueue<>();
+        webhook.setAsyncProcessing(u -> {
+            await(release);
+            processed.add(u.getUpdateId());
+        }, 1, 10);
+
+        Assert.assertEquals("", post(update(1)));
+        Assert.assertTrue(processed.isEmpty());
+        release.countDown();
+        Assert.assertEquals(Integer.valueOf(1), processed.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shedsUpdatesWhenTheQueueIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        webhook.setAsyncProcessing(u -> {
+            started.countDown();
+            await(release);
+        }, 1, 1);
+
+        try {
+            post(update(1));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            post(update(2));
+            Assert.assertEquals(1, webhook.getQueueDepth());
+
+            HttpURLConnection shed = open(update(3));
+            Assert.assertEquals(503, shed.getResponseCode());
+            Assert.assertEquals("1", shed.getHeaderField("X-Queue-Depth"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void logsFailedUpdatesAndKeepsProcessing() throws Exception {
+        ListAppender<ILoggingEvent> logged = new ListAppender<>();
+        logged.start();
+        Logger logger = (Logger) LoggerFactory.getLogger(SimpleWebhook.class);
+        logger.addAppender(logged);
+        BlockingQueue<Integer> processed = new LinkedBlockingQueue<>();
+        webhook.setAsyncProcessing(u -> {
+            if (u.getUpdateId() == 1) {
+                throw new IllegalStateException("broken");
+            }
+            processed.add(u.getUpdateId());
+        }, 1, 10);
+
+        try {
+            Assert.assertEquals("", post(update(1)));
+            Assert.assertEquals("", post(update(2)));
+            Assert.assertEquals(Integer.valueOf(2), processed.poll(5, TimeUnit.SECONDS));
+            Assert.assertTrue(logged.list.stream().anyMatch(e -> e.getLevel() == Level.ERROR
+                && e.getThrowableProxy() != null && e.getThrowableProxy().getMessage().equals("broken")));
+        } finally {
+            logger.detachAppender(logged);
+        }
+    }
+
+    private static String update(int id) {
+        return "{\"update_id\":" + id + ",\"message\":{\"message_id\":1,\"date\":1508140800,"
+            + "\"chat\":{\"id\":42,\"type\":\"private\"},\"text\":\"/help\"}}";
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends a post on a keep-alive connection and reads until the server
+     * closes it.
+     */
+    private String raw(String headers, String... body) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", webhook.getListeningPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST / HTTP/1.1\r\nHost: localhost\r\n" + headers + "\r\n" + String.join("", body))
+                .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (body.length > 0) {
+                socket.shutdownOutput();
+            }
+            return read(socket.getInputStream());
+        }
+    }
+
+    private String post(String body) throws Exception {
+        HttpURLConnection c = open(body);
+        Assert.assertEquals(200, c.getResponseCode());
+        return read(c.getInputStream());
+    }
+
+    private HttpURLConnection open(String body) throws Exception {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + webhook.getListeningPort() + "/").openConnection();
+        c.setRequestMethod("POST");
+        c.setDoOutput(true);
+        c.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = c.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return c;
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (InputStream i = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[256];
+            int n;
+            while ((n = i.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class EchoBot implements WebhookBot {
+        @Override
+        public BotApiMethod onWebhookUpdateReceived(Update update) {
+            return new SendMessage()
+                .setChatId(update.getMessage().getChatId())
+                .setText("update " + update.getUpdateId());
+        }
+
+        @Override
+        public String getBotUsername() {
+            return "test";
+        }
+
+        @Override
+        public String getBotToken() {
+            return "test";
+        }
+
+        @Override
+        public void setWebhook(String url, String publicCertificatePath) {
+        }
+
+        @Override
+        public String getBotPath() {
+            return "";
+        }
+    }
+}